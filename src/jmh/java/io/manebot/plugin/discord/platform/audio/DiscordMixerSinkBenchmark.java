@@ -0,0 +1,100 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import io.manebot.plugin.audio.opus.OpusParameters;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures DiscordMixerSink end to end: encoding 20ms mixer blocks into the lookahead buffer and handing frames to
+ * JDA.  "pipeline" runs the mixer side and JDA's send side of one sink on two threads at once, as they run in a guild;
+ * "guilds" runs a sink per thread on several threads, as several guilds playing at once do.  Run with -prof gc to
+ * check that no frame allocates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscordMixerSinkBenchmark {
+    private static DiscordMixerSink createSink() {
+        return new DiscordMixerSink(
+                DiscordMixerSink.AUDIO_FORMAT,
+                new OpusParameters(20, 128000, 10, 0, true, false, false),
+                block().length * (DiscordMixerSink.AUDIO_FORMAT.getSampleSizeInBits() / 8),
+                3,
+                25
+        );
+    }
+
+    /**
+     * 20ms of stereo noise at 48kHz; loud enough that the sink never treats it as silence.
+     */
+    private static float[] block() {
+        float[] block = new float[960 * 2];
+        for (int i = 0; i < block.length; i ++)
+            block[i] = ThreadLocalRandom.current().nextFloat() - 0.5F;
+
+        return block;
+    }
+
+    @State(Scope.Group)
+    public static class Shared {
+        private DiscordMixerSink sink;
+        private float[] block;
+
+        @Setup
+        public void setup() {
+            sink = createSink();
+            block = block();
+        }
+
+        @TearDown
+        public void tearDown() {
+            sink.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Guild {
+        private DiscordMixerSink sink;
+        private float[] block;
+
+        @Setup
+        public void setup() {
+            sink = createSink();
+            block = block();
+        }
+
+        @TearDown
+        public void tearDown() {
+            sink.close();
+        }
+    }
+
+    @Benchmark
+    @Group("pipeline")
+    @GroupThreads(1)
+    public void mix(Shared shared) {
+        shared.sink.write(shared.block, shared.block.length);
+    }
+
+    @Benchmark
+    @Group("pipeline")
+    @GroupThreads(1)
+    public void send(Shared shared, Blackhole blackhole) {
+        if (shared.sink.canProvide())
+            blackhole.consume(shared.sink.provide20MsAudio());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void guilds(Guild guild, Blackhole blackhole) {
+        guild.sink.write(guild.block, guild.block.length);
+
+        while (guild.sink.canProvide())
+            blackhole.consume(guild.sink.provide20MsAudio());
+    }
+}
@@ -0,0 +1,47 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares handing JDA a new buffer for every Opus frame (the baseline) with DiscordMixerSink's path, which queues the
+ * frame in an OpusFrameQueue and copies it into one reused buffer.  Run with -prof gc to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBufferBenchmark {
+    /**
+     * Packet sizes of 20ms frames at 64 kbps and at 128 kbps.
+     */
+    @Param({ "160", "320" })
+    public int packetSize;
+
+    private byte[] packet;
+    private final OpusFrameQueue lookahead = new OpusFrameQueue(25);
+    private final ByteBuffer frame = ByteBuffer.allocate(DiscordMixerSink.MAX_PACKET_SIZE);
+
+    @Setup
+    public void setup() {
+        packet = new byte[packetSize];
+        ThreadLocalRandom.current().nextBytes(packet);
+    }
+
+    @Benchmark
+    public ByteBuffer wrapBaseline() {
+        return ByteBuffer.wrap(packet);
+    }
+
+    @Benchmark
+    public ByteBuffer queueAndReuse() {
+        lookahead.offer(packet, 0, packet.length);
+        lookahead.poll(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,58 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import io.manebot.chat.ChatEmbed;
+import io.manebot.platform.PlatformUser;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.User;
+
+import java.sql.Date;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * DiscordChatMessage's display content, mentions and embeds as they were before they were memoized, kept as the
+ * baseline for DiscordChatMessageBenchmark.  Only the views being measured are copied; platform users are resolved
+ * through a function instead of the connection, which the benchmark doesn't have.
+ */
+final class BaselineChatMessage {
+    private final Function<User, PlatformUser> platformUsers;
+    private final Message message;
+    private final java.util.Date date;
+
+    BaselineChatMessage(Function<User, PlatformUser> platformUsers, Message message) {
+        this.date = Date.from(message.getTimeCreated().toInstant());
+        this.platformUsers = platformUsers;
+        this.message = message;
+    }
+
+    Collection<PlatformUser> getMentions() {
+        return message.getMentionedUsers()
+                .stream()
+                .map(platformUsers)
+                .collect(Collectors.toList());
+    }
+
+    String getMessage() {
+        return message.getContentDisplay();
+    }
+
+    Collection<BaselineEmbed> getEmbeds() {
+        return message.getEmbeds().stream().map(BaselineEmbed::new).collect(Collectors.toList());
+    }
+
+    static final class BaselineEmbed {
+        private final MessageEmbed embed;
+
+        private BaselineEmbed(MessageEmbed embed) {
+            this.embed = embed;
+        }
+
+        Collection<ChatEmbed.Field> getFields() {
+            return embed.getFields().stream()
+                    .map(field -> new ChatEmbed.Field(field.getName(), field.getValue(), field.isInline()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import io.manebot.chat.TextStyle;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * DiscordTextFormat's escaping and styling as they were before they were made allocation-light, kept as the
+ * baseline for DiscordTextFormatBenchmark.
+ */
+final class BaselineTextFormat {
+    private BaselineTextFormat() {
+    }
+
+    static String format(String string, EnumSet<TextStyle> styles) {
+        if (string.trim().length() <= 0) return string;
+
+        List<TextStyle> list = new ArrayList<>(styles);
+
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < list.size(); i ++)
+            builder.append(styleToKey(list.get(i)));
+
+        builder.append(escape(string));
+
+
+        for (int i = list.size()-1; i >= 0; i --)
+            builder.append(styleToKey(list.get(i)));
+
+        return builder.toString();
+    }
+
+    private static String styleToKey(TextStyle style) {
+        switch (style) {
+            case BOLD:
+                return "**";
+            case ITALICS:
+                return "_";
+            case STRIKE_THROUGH:
+                return "~~";
+            case UNDERLINE:
+                return "__";
+            case CODE_BLOCK:
+                return "```";
+            case INLINE_CODE:
+                return "`";
+            default:
+                throw new UnsupportedOperationException(style.name());
+        }
+    }
+
+    static String escape(String string) {
+        StringBuilder builder = new StringBuilder();
+
+        for (char character : string.toCharArray()) {
+            if (!Character.isLetterOrDigit(character) && !Character.isWhitespace(character))
+                builder.append('\\');
+
+            builder.append(character);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import io.manebot.chat.ChatEmbed;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Proxy;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures wrapping a received message and reading its display content, mentions and embed fields the way command
+ * handlers do (several times per message), with DiscordChatMessage's memoized views and with the implementation from
+ * before they were memoized (BaselineChatMessage).  Run with -prof gc to compare allocation rates.
+ *
+ * The JDA message is a stub that returns precomputed values, so only the plugin's own work is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscordChatMessageBenchmark {
+    /**
+     * How many times a handler reads the message.
+     */
+    @Param({ "1", "4" })
+    public int reads;
+
+    private Message discordMessage;
+    private DiscordChatSender sender;
+
+    @Setup
+    public void setup() {
+        List<MessageEmbed> embeds = Collections.singletonList(new EmbedBuilder()
+                .setTitle("Now playing")
+                .setDescription("Never Gonna Give You Up")
+                .addField("Length", "3:32", true)
+                .addField("Requested by", "Someone", true)
+                .build());
+
+        OffsetDateTime created = OffsetDateTime.now();
+        String content = "!play Never Gonna Give You Up";
+
+        discordMessage = (Message) Proxy.newProxyInstance(
+                Message.class.getClassLoader(),
+                new Class<?>[] { Message.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getIdLong":
+                            return 1L;
+                        case "getId":
+                            return "1";
+                        case "getTimeCreated":
+                            return created;
+                        case "getContentDisplay":
+                        case "getContentRaw":
+                            return content;
+                        case "getMentionedUsers":
+                            return Collections.emptyList();
+                        case "getEmbeds":
+                            return embeds;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+        );
+
+        // The sender isn't read by the views being measured
+        sender = new DiscordChatSender(null, null);
+    }
+
+    @Benchmark
+    public void baseline(Blackhole blackhole) {
+        // No users are mentioned, so nothing is resolved
+        BaselineChatMessage message = new BaselineChatMessage(user -> null, discordMessage);
+
+        for (int i = 0; i < reads; i ++) {
+            blackhole.consume(message.getMessage());
+            blackhole.consume(message.getMentions());
+            for (BaselineChatMessage.BaselineEmbed embed : message.getEmbeds())
+                blackhole.consume(embed.getFields());
+        }
+    }
+
+    @Benchmark
+    public void memoized(Blackhole blackhole) {
+        DiscordChatMessage message = new DiscordChatMessage(null, sender, discordMessage);
+
+        for (int i = 0; i < reads; i ++) {
+            blackhole.consume(message.getMessage());
+            blackhole.consume(message.getMentions());
+            for (ChatEmbed embed : message.getEmbeds())
+                blackhole.consume(embed.getFields());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import io.manebot.chat.TextStyle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares DiscordTextFormat's escaping and styling with the baseline implementation, on text that needs no escaping
+ * (the common case) and on text full of markdown.  Run with -prof gc to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscordTextFormatBenchmark {
+    @Param({
+            "Now playing Never Gonna Give You Up by Rick Astley",
+            "**Now playing:** _Never Gonna Give You Up_ (3:32) ~ `!skip` to skip, <https://example.com/?v=dQw4w9WgXcQ>"
+    })
+    public String text;
+
+    private final EnumSet<TextStyle> styles = EnumSet.of(TextStyle.BOLD, TextStyle.ITALICS);
+
+    @Benchmark
+    public String escapeBaseline() {
+        return BaselineTextFormat.escape(text);
+    }
+
+    @Benchmark
+    public String escape() {
+        return DiscordTextFormat.INSTANCE.escape(text);
+    }
+
+    @Benchmark
+    public String formatBaseline() {
+        return BaselineTextFormat.format(text, styles);
+    }
+
+    @Benchmark
+    public String format() {
+        return DiscordTextFormat.INSTANCE.format(text, styles);
+    }
+}
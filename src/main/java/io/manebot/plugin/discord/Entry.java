@@ -29,7 +29,7 @@ public final class Entry implements PluginEntry {
         );
 
         // GuildManager database object manager
-        builder.setInstance(GuildManager.class, plugin -> new GuildManager(database));
+        builder.setInstance(GuildManager.class, plugin -> new GuildManager(plugin, database));
 
         // Set up Discord platform
         builder.addPlatform(platformBuilder -> {
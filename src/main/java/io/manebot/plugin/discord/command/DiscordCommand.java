@@ -12,8 +12,20 @@ import io.manebot.command.executor.chained.argument.CommandArgumentSwitch;
 import io.manebot.platform.PlatformConnection;
 import io.manebot.plugin.Plugin;
 import io.manebot.plugin.PluginException;
+import io.manebot.plugin.discord.platform.CallbackExecutor;
 import io.manebot.plugin.discord.platform.DiscordPlatformConnection;
+import io.manebot.plugin.discord.platform.audio.AdaptiveOpusParameters;
+import io.manebot.plugin.discord.platform.audio.DiscordMixerSink;
+import io.manebot.plugin.discord.platform.audio.OpusBroadcast;
+import io.manebot.plugin.discord.platform.audio.VoiceReceivePipeline;
+import io.manebot.plugin.discord.platform.audio.VoiceRecorder;
+import io.manebot.plugin.discord.platform.chat.SendScheduler;
 import io.manebot.plugin.discord.platform.guild.DiscordGuildConnection;
+import net.dv8tion.jda.api.entities.VoiceChannel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 public class DiscordCommand extends AnnotatedCommandExecutor {
     private final DiscordPlatformConnection connection;
@@ -35,10 +47,27 @@ public class DiscordCommand extends AnnotatedCommandExecutor {
 
     @Command(description = "Gets Discord status", permission = "discord.status")
     public void info(CommandSender sender) throws CommandExecutionException {
+        CallbackExecutor callbacks = connection.getCallbackExecutor();
+
         sender.sendDetails(builder -> builder.name("Discord")
                 .item("Client", connection.isConnected() ? "connected": "not connected")
+                .item("Shards", connection.getShardsRunning() + "/" + connection.getShardsTotal())
+                .item("Guilds", Integer.toString(connection.getGuildConnections().size()))
                 .item("Users", Integer.toString(connection.getPlatformUsers().size()))
+                .item("Member cache", connection.getMemberCacheProfile().name().toLowerCase()
+                        + " (" + connection.getCachedMemberCount() + " cached)")
                 .item("Channels", Integer.toString(connection.getChats().size()))
+                .item("Idle timers", connection.getIdleTimers() == null ? "not started" :
+                        connection.getIdleTimers().getPending() + " pending")
+                .item("Callbacks", callbacks == null ? "not started" :
+                        String.format("%d active (%s), %d queued, %d done, %d run by caller, %.1fms avg, %.1fms max",
+                                callbacks.getActiveThreads(),
+                                callbacks.isVirtual() ? "virtual" : callbacks.getPoolSize() + " threads",
+                                callbacks.getQueueDepth(),
+                                callbacks.getCompletedTasks(),
+                                callbacks.getCallerRunTasks(),
+                                callbacks.getAverageLatencyMillis(),
+                                callbacks.getMaxLatencyMillis()))
         );
     }
 
@@ -56,6 +85,29 @@ public class DiscordCommand extends AnnotatedCommandExecutor {
         );
     }
 
+    @Command(description = "Lists outgoing message routes", permission = "discord.status")
+    public void routes(CommandSender sender,
+                       @CommandArgumentLabel.Argument(label = "routes") String label,
+                       @CommandArgumentPage.Argument int page)
+            throws CommandExecutionException {
+        SendScheduler sendScheduler = connection.getSendScheduler();
+        if (sendScheduler == null)
+            throw new CommandArgumentException("Discord is not connected.");
+
+        List<SendScheduler.Route> routes = new ArrayList<>(sendScheduler.getRoutes());
+        routes.sort(Comparator.comparingInt(SendScheduler.Route::getQueueDepth).reversed());
+
+        sender.sendList(
+                SendScheduler.Route.class,
+                builder -> builder.direct(routes).page(page)
+                        .responder((textBuilder, route) ->
+                                textBuilder.append(route.getId() + ": " + route.getQueueDepth() + " queued, "
+                                        + route.getSent() + " sent, " + route.getDropped() + " dropped, "
+                                        + String.format("%.1fms", route.getAverageWaitMillis()) + " avg wait")
+                        )
+        );
+    }
+
     @Command(description = "Gets guild information", permission = "discord.guild.info")
     public void guildInfo(CommandSender sender,
                        @CommandArgumentLabel.Argument(label = "guild") String guildLabel,
@@ -74,12 +126,161 @@ public class DiscordCommand extends AnnotatedCommandExecutor {
             builder.item("Status", (connection.isRegistered() ? "registered" : "unregistered"));
 
             if (connection.getAudioChannel() != null)
-                builder.item("Audio", "enabled");
+                builder.item("Audio", connection.isAudioAllocated() ? "enabled (allocated)" : "enabled (idle)");
             else
                 builder.item("Audio", "disabled");
+
+            DiscordMixerSink sink = connection.getMixerSink();
+            if (sink != null) {
+                AdaptiveOpusParameters encoder = connection.getOpusParameters();
+                builder.item("Encoder", String.format(
+                        "%d kbps, complexity %d (channel %d kbps, ping %dms, jitter %dms, level %d)",
+                        connection.getEncoderBitrate() / 1000,
+                        connection.getEncoderComplexity(),
+                        encoder.getChannelBitrate() / 1000,
+                        encoder.getPing(),
+                        encoder.getJitter(),
+                        encoder.getLevel()));
+                builder.item("Audio buffer", sink.getLookaheadDepth() + "/" + sink.getTargetDepth() + " frames");
+                builder.item("Underruns", Long.toString(sink.getUnderruns()));
+                builder.item("Late ticks", Long.toString(sink.getLateFrames()));
+                builder.item("Dropped frames", Long.toString(sink.getDroppedFrames()));
+                builder.item("Silent blocks skipped", sink.getSkippedBlocks() + (sink.isSilent() ? " (silent)" : ""));
+            }
+
+            builder.item("Speaking", Integer.toString(connection.getSpeakingIndex().getSpeakingCount()));
+
+            VoiceReceivePipeline receive = connection.getReceivePipeline();
+            builder.item("Voice receive", String.format(
+                    "%d streams, %d queued, %d decoded, %d dropped, %d undecodable, %.1fms decode CPU",
+                    receive.getStreams(),
+                    receive.getQueueDepth(),
+                    receive.getDecodedPackets(),
+                    receive.getDroppedPackets(),
+                    receive.getUndecodablePackets(),
+                    receive.getDecodeNanos() / 1_000_000D));
+
+            VoiceRecorder recorder = connection.getRecorder();
+            if (recorder != null)
+                builder.item("Recording", recorder.getSpeakers() + " speakers, " + recorder.getSegments()
+                        + " files, " + recorder.getFailures() + " failures (" + recorder.getDirectory() + ")");
+
+            OpusBroadcast broadcast = connection.getBroadcast();
+            if (broadcast != null)
+                builder.item("Broadcast subscribers", Integer.toString(broadcast.getSubscribers().size()));
+
+            OpusBroadcast.Subscriber subscription = connection.getSubscription();
+            if (subscription != null)
+                builder.item("Relaying from", subscription.getBroadcast().getId()
+                        + " (" + subscription.getDroppedFrames() + " frames dropped)");
         });
     }
 
+    @Command(description = "Relays a guild's audio into another guild", permission = "discord.guild.audio.broadcast")
+    public void broadcast(CommandSender sender,
+                          @CommandArgumentLabel.Argument(label = "guild") String guildLabel,
+                          @CommandArgumentLabel.Argument(label = "broadcast") String broadcastLabel,
+                          @CommandArgumentString.Argument(label = "source guild ID") String sourceGuildId,
+                          @CommandArgumentString.Argument(label = "target guild ID") String targetGuildId,
+                          @CommandArgumentString.Argument(label = "voice channel ID") String voiceChannelId)
+            throws CommandExecutionException {
+        DiscordGuildConnection source = this.connection.getGuildConnection(sourceGuildId);
+        if (source == null)
+            throw new CommandArgumentException("Source guild not found.");
+
+        DiscordGuildConnection target = this.connection.getGuildConnection(targetGuildId);
+        if (target == null)
+            throw new CommandArgumentException("Target guild not found.");
+
+        if (source == target)
+            throw new CommandArgumentException("A guild cannot relay its own audio.");
+
+        if (source.getAudioChannel() == null)
+            throw new CommandArgumentException("Audio is not enabled for the source guild.");
+
+        if (target.getAudioChannel() == null)
+            throw new CommandArgumentException("Audio is not enabled for the target guild.");
+
+        VoiceChannel voiceChannel = target.getGuild().getVoiceChannelById(voiceChannelId);
+        if (voiceChannel == null)
+            throw new CommandArgumentException("Voice channel not found in target guild.");
+
+        try {
+            target.subscribe(source.getOrCreateBroadcast(), voiceChannel);
+        } catch (Exception ex) {
+            throw new CommandExecutionException("Failed to relay audio into guild", ex);
+        }
+
+        sender.sendMessage("Relaying audio from guild " + source.getId() + " into " + voiceChannel.getName() + ".");
+    }
+
+    @Command(description = "Stops relaying audio into a guild", permission = "discord.guild.audio.broadcast")
+    public void unbroadcast(CommandSender sender,
+                            @CommandArgumentLabel.Argument(label = "guild") String guildLabel,
+                            @CommandArgumentLabel.Argument(label = "unbroadcast") String unbroadcastLabel,
+                            @CommandArgumentString.Argument(label = "target guild ID") String targetGuildId)
+            throws CommandExecutionException {
+        DiscordGuildConnection target = this.connection.getGuildConnection(targetGuildId);
+        if (target == null)
+            throw new CommandArgumentException("Guild not found.");
+
+        if (!target.unsubscribe())
+            throw new CommandArgumentException("Guild is not relaying audio.");
+
+        sender.sendMessage("Stopped relaying audio into guild.");
+    }
+
+    @Command(description = "Starts recording a guild's voice channel", permission = "discord.guild.audio.record")
+    public void startRecording(CommandSender sender,
+                               @CommandArgumentLabel.Argument(label = "guild") String guildLabel,
+                               @CommandArgumentLabel.Argument(label = "record") String recordLabel,
+                               @CommandArgumentLabel.Argument(label = "start") String startLabel,
+                               @CommandArgumentString.Argument(label = "guild ID") String guildId,
+                               @CommandArgumentString.Argument(label = "voice channel ID") String voiceChannelId)
+            throws CommandExecutionException {
+        DiscordGuildConnection connection = this.connection.getGuildConnection(guildId);
+        if (connection == null)
+            throw new CommandArgumentException("Guild not found.");
+
+        if (connection.getAudioChannel() == null)
+            throw new CommandArgumentException("Audio is not enabled for this guild.");
+
+        if (connection.getRecorder() != null)
+            throw new CommandArgumentException("This guild is already being recorded.");
+
+        VoiceChannel voiceChannel = connection.getGuild().getVoiceChannelById(voiceChannelId);
+        if (voiceChannel == null)
+            throw new CommandArgumentException("Voice channel not found in guild.");
+
+        VoiceRecorder recorder;
+        try {
+            recorder = connection.startRecording(voiceChannel);
+        } catch (Exception ex) {
+            throw new CommandExecutionException("Failed to start recording guild", ex);
+        }
+
+        sender.sendMessage("Recording " + voiceChannel.getName() + " to " + recorder.getDirectory() + ".");
+    }
+
+    @Command(description = "Stops recording a guild's voice channel", permission = "discord.guild.audio.record")
+    public void stopRecording(CommandSender sender,
+                              @CommandArgumentLabel.Argument(label = "guild") String guildLabel,
+                              @CommandArgumentLabel.Argument(label = "record") String recordLabel,
+                              @CommandArgumentLabel.Argument(label = "stop") String stopLabel,
+                              @CommandArgumentString.Argument(label = "guild ID") String guildId)
+            throws CommandExecutionException {
+        DiscordGuildConnection connection = this.connection.getGuildConnection(guildId);
+        if (connection == null)
+            throw new CommandArgumentException("Guild not found.");
+
+        VoiceRecorder recorder = connection.stopRecording();
+        if (recorder == null)
+            throw new CommandArgumentException("This guild is not being recorded.");
+
+        sender.sendMessage("Stopped recording; wrote " + recorder.getSegments() + " files for "
+                + recorder.getSpeakers() + " speakers to " + recorder.getDirectory() + ".");
+    }
+
     @Command(description = "Enables audio for a guild", permission = "discord.guild.audio.change")
     public void enableAudio(CommandSender sender,
                           @CommandArgumentLabel.Argument(label = "guild") String guildLabel,
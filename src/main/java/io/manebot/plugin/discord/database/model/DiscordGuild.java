@@ -5,6 +5,8 @@ import io.manebot.database.model.Conversation;
 import io.manebot.database.model.TimedRow;
 
 import javax.persistence.*;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @javax.persistence.Entity
 @Table(
@@ -17,9 +19,19 @@ import javax.persistence.*;
         uniqueConstraints = {@UniqueConstraint(columnNames ={"id"})}
 )
 public class DiscordGuild extends TimedRow {
+    private static final int FIELD_MUSIC_ENABLED = 1;
+    private static final int FIELD_IDLE_TIMEOUT = 1 << 1;
+    private static final int FIELD_DISPLAY_NAME = 1 << 2;
+
     @Transient
     private final io.manebot.database.Database database;
 
+    @Transient
+    private final AtomicInteger dirtyFields = new AtomicInteger();
+
+    @Transient
+    private volatile DiscordGuildWriteQueue writeQueue;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column()
@@ -64,6 +76,12 @@ public class DiscordGuild extends TimedRow {
 
     public void setMusicEnabled(boolean musicEnabled) {
         if (this.musicEnabled != musicEnabled) {
+            if (writeQueue != null) {
+                this.musicEnabled = musicEnabled;
+                markDirty(FIELD_MUSIC_ENABLED);
+                return;
+            }
+
             this.musicEnabled = database.execute(s -> {
                 DiscordGuild model = s.find(DiscordGuild.class, discordGuildId);
                 model.musicEnabled = musicEnabled;
@@ -78,6 +96,12 @@ public class DiscordGuild extends TimedRow {
 
     public void setIdleTimeout(int idleTimeout) {
         if (this.idleTimeout != idleTimeout) {
+            if (writeQueue != null) {
+                this.idleTimeout = idleTimeout;
+                markDirty(FIELD_IDLE_TIMEOUT);
+                return;
+            }
+
             this.idleTimeout = database.execute(s -> {
                 DiscordGuild model = s.find(DiscordGuild.class, discordGuildId);
                 model.idleTimeout = idleTimeout;
@@ -99,7 +123,13 @@ public class DiscordGuild extends TimedRow {
     }
 
     public void setDisplayName(String displayName) {
-        if (!this.displayName.equals(displayName)) {
+        if (!Objects.equals(this.displayName, displayName)) {
+            if (writeQueue != null) {
+                this.displayName = displayName;
+                markDirty(FIELD_DISPLAY_NAME);
+                return;
+            }
+
             this.displayName = database.execute(s -> {
                 DiscordGuild model = s.find(DiscordGuild.class, discordGuildId);
                 model.displayName = displayName;
@@ -107,4 +137,39 @@ public class DiscordGuild extends TimedRow {
             });
         }
     }
+
+    /**
+     * Sets the write-behind queue used to persist setting changes.  Without a queue, each change is written in its
+     * own transaction.
+     * @param writeQueue write queue.
+     */
+    public void setWriteQueue(DiscordGuildWriteQueue writeQueue) {
+        this.writeQueue = writeQueue;
+    }
+
+    private void markDirty(int field) {
+        dirtyFields.getAndUpdate(fields -> fields | field);
+        writeQueue.enqueue(this);
+    }
+
+    int takeDirtyFields() {
+        return dirtyFields.getAndSet(0);
+    }
+
+    void restoreDirtyFields(int fields) {
+        if (fields == 0) return;
+        dirtyFields.getAndUpdate(current -> current | fields);
+        writeQueue.enqueue(this);
+    }
+
+    void writeFields(EntityManager s, int fields) {
+        if (fields == 0) return;
+
+        DiscordGuild model = s.find(DiscordGuild.class, discordGuildId);
+        if (model == null) return;
+
+        if ((fields & FIELD_MUSIC_ENABLED) != 0) model.musicEnabled = musicEnabled;
+        if ((fields & FIELD_IDLE_TIMEOUT) != 0) model.idleTimeout = idleTimeout;
+        if ((fields & FIELD_DISPLAY_NAME) != 0) model.displayName = displayName;
+    }
 }
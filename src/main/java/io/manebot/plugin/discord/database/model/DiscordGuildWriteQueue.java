@@ -0,0 +1,109 @@
+package io.manebot.plugin.discord.database.model;
+
+import io.manebot.database.Database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind queue for DiscordGuild setting changes.  Changed rows are coalesced (a row changed many times before a
+ * flush is written once) and written in batched transactions, either on a timer or once enough rows are pending.
+ * The in-memory model stays authoritative for reads until its changes are flushed.  Once the queue is closed,
+ * changes are written as they are made.
+ */
+public class DiscordGuildWriteQueue {
+    private final Database database;
+    private final Logger logger;
+    private final int batchSize;
+    private final Set<DiscordGuild> pending = ConcurrentHashMap.newKeySet();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "discord-guild-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed = false;
+
+    public DiscordGuildWriteQueue(Database database, Logger logger, long flushIntervalMillis, int batchSize) {
+        this.database = database;
+        this.logger = logger;
+        this.batchSize = batchSize;
+
+        executor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void enqueue(DiscordGuild guild) {
+        boolean added = pending.add(guild);
+
+        if (closed) {
+            flush(); // even if the guild was already pending, as no timer is left to write it
+        } else if (added && pending.size() >= batchSize) {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flush(); // closed in the meantime
+            }
+        }
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all pending changes to the database.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            while (!pending.isEmpty()) {
+                List<DiscordGuild> batch = new ArrayList<>(batchSize);
+                Iterator<DiscordGuild> iterator = pending.iterator();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+
+                int[] fields = new int[batch.size()];
+                for (int i = 0; i < fields.length; i ++)
+                    fields[i] = batch.get(i).takeDirtyFields();
+
+                try {
+                    database.executeTransaction(s -> {
+                        for (int i = 0; i < fields.length; i ++)
+                            batch.get(i).writeFields(s, fields[i]);
+
+                        return null;
+                    });
+                } catch (SQLException | RuntimeException e) {
+                    logger.log(Level.WARNING,
+                            "Problem writing " + batch.size() + " Discord guild changes; will retry", e);
+
+                    // Put the changes back so they are retried on the next flush
+                    for (int i = 0; i < fields.length; i ++)
+                        batch.get(i).restoreDirtyFields(fields[i]);
+
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes all pending changes and stops the flush timer.  Changes made after this are written right away.
+     */
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        flush();
+    }
+}
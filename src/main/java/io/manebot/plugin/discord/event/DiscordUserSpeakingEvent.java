@@ -0,0 +1,51 @@
+package io.manebot.plugin.discord.event;
+
+import io.manebot.event.Event;
+import io.manebot.platform.PlatformUser;
+import io.manebot.plugin.discord.platform.guild.DiscordGuildConnection;
+
+/**
+ * Fired when a user starts or stops speaking in a guild's voice connection.  Stops are debounced: a user who pauses
+ * briefly and carries on speaking doesn't fire a stop and a new start.
+ */
+public class DiscordUserSpeakingEvent extends Event {
+    private final DiscordGuildConnection guildConnection;
+    private final PlatformUser platformUser;
+    private final boolean speaking;
+    private final long durationMillis;
+
+    public DiscordUserSpeakingEvent(Object sender,
+                                    DiscordGuildConnection guildConnection,
+                                    PlatformUser platformUser,
+                                    boolean speaking,
+                                    long durationMillis) {
+        super(sender);
+
+        this.guildConnection = guildConnection;
+        this.platformUser = platformUser;
+        this.speaking = speaking;
+        this.durationMillis = durationMillis;
+    }
+
+    public DiscordGuildConnection getGuildConnection() {
+        return guildConnection;
+    }
+
+    public PlatformUser getPlatformUser() {
+        return platformUser;
+    }
+
+    /**
+     * Finds if the user started speaking; false if they stopped.
+     */
+    public boolean isSpeaking() {
+        return speaking;
+    }
+
+    /**
+     * Gets how long the user spoke, in milliseconds, if they stopped; 0 if they started.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
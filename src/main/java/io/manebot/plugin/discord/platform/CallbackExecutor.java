@@ -0,0 +1,198 @@
+package io.manebot.plugin.discord.platform;
+
+import io.manebot.plugin.Plugin;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor for JDA RestAction callbacks.  Unlike a cached thread pool, it never grows past a bounded number of threads
+ * and a bounded queue; once both are full, callbacks run on the submitting thread, applying backpressure.  Callbacks
+ * are never dropped while the executor is running, as that would leave the futures waiting on them incomplete
+ * forever; once it is shut down, callbacks that can't be queued are discarded.
+ * Task counts, queue depth and task latency (queue wait plus run time) are recorded for the "discord info" command.
+ *
+ * Threads running a callback are marked, so blocking calls made from a callback can fail fast instead of waiting on
+ * a callback that has no thread left to run on.
+ */
+public class CallbackExecutor extends AbstractExecutorService {
+    private static final ThreadLocal<Boolean> CALLBACK_THREAD = ThreadLocal.withInitial(() -> false);
+
+    private final ExecutorService delegate;
+    private final ThreadPoolExecutor pool; // null in virtual-thread mode
+    private final Semaphore virtualPermits; // null in pooled mode
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private CallbackExecutor(int threads, int maxThreads, int queueSize, boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? createVirtualThreadExecutor() : null;
+
+        if (virtualExecutor != null) {
+            this.delegate = virtualExecutor;
+            this.pool = null;
+            this.virtualPermits = new Semaphore(maxThreads + queueSize);
+        } else {
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(
+                    threads, Math.max(threads, maxThreads),
+                    60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "discord-callback-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (runnable, executor) -> {
+                        if (executor.isShutdown()) return; // discarded on shutdown, not run by the caller
+
+                        callerRuns.increment();
+                        runnable.run();
+                    }
+            );
+
+            this.delegate = pool;
+            this.virtualPermits = null;
+        }
+    }
+
+    public static CallbackExecutor fromPluginConfiguration(Plugin plugin) {
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        return new CallbackExecutor(
+                Integer.parseInt(plugin.getProperty("callbackThreads", Integer.toString(Math.max(2, processors)))),
+                Integer.parseInt(plugin.getProperty("callbackMaxThreads", Integer.toString(processors * 4))),
+                Integer.parseInt(plugin.getProperty("callbackQueueSize", "1000")),
+                Boolean.parseBoolean(plugin.getProperty("callbackVirtualThreads", "false"))
+        );
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor, if the runtime supports virtual threads (Java 21+).
+     * @return virtual thread executor, or null if virtual threads are not supported.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long queued = System.nanoTime();
+        Runnable task = () -> {
+            // Caller-runs executes on the submitting thread, which may or may not be a callback thread already
+            boolean wasCallbackThread = CALLBACK_THREAD.get();
+            CALLBACK_THREAD.set(true);
+            active.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                CALLBACK_THREAD.set(wasCallbackThread);
+                active.decrementAndGet();
+                completed.increment();
+
+                long latency = System.nanoTime() - queued;
+                latencyNanos.add(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+        };
+
+        if (virtualPermits == null) {
+            delegate.execute(task);
+        } else if (virtualPermits.tryAcquire()) {
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        virtualPermits.release();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                virtualPermits.release();
+                throw ex;
+            }
+        } else if (!delegate.isShutdown()) {
+            // Saturated: push back on the caller
+            callerRuns.increment();
+            task.run();
+        }
+    }
+
+    /**
+     * Finds if the current thread is running a callback, i.e. must not block waiting for another one.
+     */
+    public static boolean isCallbackThread() {
+        return CALLBACK_THREAD.get();
+    }
+
+    public boolean isVirtual() {
+        return pool == null;
+    }
+
+    public int getActiveThreads() {
+        return active.get();
+    }
+
+    public int getPoolSize() {
+        return pool == null ? active.get() : pool.getPoolSize();
+    }
+
+    public int getQueueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    public long getCompletedTasks() {
+        return completed.sum();
+    }
+
+    /**
+     * Gets the number of callbacks run on the submitting thread because the executor was saturated.
+     */
+    public long getCallerRunTasks() {
+        return callerRuns.sum();
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = completed.sum();
+        return count <= 0 ? 0D : (latencyNanos.sum() / (double) count) / 1_000_000D;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1_000_000D;
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -22,30 +22,48 @@ import io.manebot.plugin.discord.database.model.DiscordGuild;
 
 import io.manebot.plugin.discord.platform.chat.*;
 import io.manebot.plugin.discord.platform.guild.DiscordGuildConnection;
+import io.manebot.plugin.discord.platform.guild.GuildConnectionRegistry;
 import io.manebot.plugin.discord.platform.guild.GuildManager;
 import io.manebot.plugin.discord.platform.user.DiscordPlatformUser;
+import io.manebot.plugin.discord.platform.user.MemberCacheProfile;
+import io.manebot.plugin.discord.platform.user.RecentMemberCachePolicy;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.events.ExceptionEvent;
+import net.dv8tion.jda.api.events.RawGatewayEvent;
 import net.dv8tion.jda.api.events.ReadyEvent;
 import net.dv8tion.jda.api.events.guild.GuildAvailableEvent;
 import net.dv8tion.jda.api.events.guild.GuildUnavailableEvent;
 import net.dv8tion.jda.api.events.guild.voice.GuildVoiceJoinEvent;
 import net.dv8tion.jda.api.events.guild.voice.GuildVoiceLeaveEvent;
 import net.dv8tion.jda.api.events.guild.voice.GuildVoiceMoveEvent;
+import net.dv8tion.jda.api.events.message.MessageBulkDeleteEvent;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
-import net.dv8tion.jda.api.requests.GatewayIntent;
-import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import net.dv8tion.jda.api.sharding.DefaultShardManagerBuilder;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import net.dv8tion.jda.api.utils.SessionControllerAdapter;
+import net.dv8tion.jda.api.utils.data.DataObject;
 import net.dv8tion.jda.internal.utils.PermissionUtil;
 import org.jetbrains.annotations.NotNull;
 
 import javax.security.auth.login.LoginException;
 import java.util.*;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.logging.Level;
 
@@ -61,9 +79,23 @@ public class DiscordPlatformConnection
     private final Audio audio;
     private final GuildManager guildManager;
 
-    private final Map<String, DiscordGuildConnection> guildConnections = new LinkedHashMap<>();
+    private final GuildConnectionRegistry guildConnections = new GuildConnectionRegistry();
 
-    private JDA client;
+    private final Semaphore readyShards = new Semaphore(0);
+    private final Set<Integer> readyShardIds = ConcurrentHashMap.newKeySet(); // shards counted in readyShards
+
+    private ShardManager shardManager;
+    private ExecutorService registrationExecutor;
+    private ExecutorService receiveExecutor;
+    private CallbackExecutor callbackExecutor;
+
+    private MemberCacheProfile memberCacheProfile = MemberCacheProfile.FULL;
+    private RecentMemberCachePolicy recentMemberPolicy;
+    private ScheduledExecutorService scheduler;
+    private TimerWheel idleTimers;
+    private long coalesceWindowMillis;
+    private SendScheduler sendScheduler;
+    private MessageHistoryCache messageHistory = new MessageHistoryCache(0, 0);
 
     public DiscordPlatformConnection(Platform platform,
                                      Plugin plugin,
@@ -85,61 +117,240 @@ public class DiscordPlatformConnection
         return audio;
     }
 
-    private DiscordGuildConnection createGuildConnection(Guild connection) {
-        DiscordGuild guild = guildManager.getOrCreateGuild(connection.getId());
+    private DiscordGuildConnection createGuildConnection(Guild connection, DiscordGuild guild) {
+        if (guild == null) guild = guildManager.getOrCreateGuild(connection.getId());
         return new DiscordGuildConnection(plugin, guild, connection, this, audio, audioConnection);
     }
 
     public DiscordGuildConnection getGuildConnection(String id) {
-        Guild guild = client.getGuildById(id);
+        Guild guild = shardManager.getGuildById(id);
         if (guild == null) throw new IllegalArgumentException("Unknown Discord guild: " + id);
         return getGuildConnection(guild);
     }
 
     public DiscordGuildConnection getGuildConnection(Guild guild) {
-        return guildConnections.computeIfAbsent(guild.getId(), key -> createGuildConnection(guild));
+        return getGuildConnection(guild, null);
+    }
+
+    private DiscordGuildConnection getGuildConnection(Guild guild, DiscordGuild model) {
+        return guildConnections.getOrCreate(guild.getIdLong(), key -> createGuildConnection(guild, model));
     }
 
     public AudioConnection getAudioConnection() {
         return audioConnection;
     }
 
+    public ShardManager getShardManager() {
+        return shardManager;
+    }
+
+    /**
+     * Gets the shared scheduler used for short timed tasks.  Tasks run on it must not block.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Gets the worker pool that decodes received voice for all guilds.
+     */
+    public ExecutorService getReceiveExecutor() {
+        return receiveExecutor;
+    }
+
+    /**
+     * Gets the timer wheel holding the idle timeouts of every guild's audio channel.
+     */
+    public TimerWheel getIdleTimers() {
+        return idleTimers;
+    }
+
+    /**
+     * Gets the window in which plain messages sent to the same channel are coalesced, or 0 if coalescing is disabled.
+     */
+    public long getCoalesceWindowMillis() {
+        return coalesceWindowMillis;
+    }
+
+    public MessageHistoryCache getMessageHistory() {
+        return messageHistory;
+    }
+
+    public SendScheduler getSendScheduler() {
+        return sendScheduler;
+    }
+
+    public CallbackExecutor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public MemberCacheProfile getMemberCacheProfile() {
+        return memberCacheProfile;
+    }
+
+    public long getCachedMemberCount() {
+        return shardManager == null ? 0L : shardManager.getGuildCache().stream()
+                .mapToLong(guild -> guild.getMemberCache().size())
+                .sum();
+    }
+
+    public int getShardsRunning() {
+        return shardManager == null ? 0 : shardManager.getShardsRunning();
+    }
+
+    public int getShardsTotal() {
+        return shardManager == null ? 0 : shardManager.getShardsTotal();
+    }
+
     // Connect/Disconnect ==============================================================================================
 
     @Override
     public void connect() throws PluginException {
+        // "shards" selects the range of shards run by this process ("0-5"), or "recommended" to let Discord decide
+        // how many shards to run.  Without it, the single shard described by shardId/totalShards is run.
+        String shards = plugin.getProperty("shards", null);
+        int totalShards;
+        int minShardId, maxShardId;
+
+        if (shards == null) {
+            totalShards = Integer.parseInt(plugin.getProperty("totalShards", "1"));
+            minShardId = maxShardId = Integer.parseInt(plugin.getProperty("shardId", "0"));
+        } else if (shards.equalsIgnoreCase("recommended")) {
+            totalShards = -1;
+            minShardId = maxShardId = -1;
+        } else {
+            String[] range = shards.split("-", 2);
+            totalShards = Integer.parseInt(plugin.requireProperty("totalShards"));
+            minShardId = Integer.parseInt(range[0].trim());
+            maxShardId = range.length > 1 ? Integer.parseInt(range[1].trim()) : minShardId;
+        }
+
+        readyShardIds.clear();
+        readyShards.drainPermits();
+
+        // Shared timer for short housekeeping tasks (member eviction, message coalescing, ...)
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "discord-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Idle timeouts are whole seconds; 512 one-second buckets cover typical timeouts in a single rotation
+        idleTimers = new TimerWheel(scheduler, plugin.getLogger(), 1, TimeUnit.SECONDS, 512);
+
+        coalesceWindowMillis = Long.parseLong(plugin.getProperty("coalesceWindow", "0"));
+
+        messageHistory = new MessageHistoryCache(
+                Integer.parseInt(plugin.getProperty("historySize", "50")),
+                Integer.parseInt(plugin.getProperty("historyMaxMessages", "50000"))
+        );
+
+        // Discord allows 5 messages per 5 seconds in each channel.  The bucket is fixed here rather than read from
+        // Discord's rate limit headers; JDA's requester still honours those if the real limit is tighter
+        sendScheduler = new SendScheduler(
+                scheduler,
+                5, 5000L,
+                Integer.parseInt(plugin.getProperty("backgroundQueueSize", "50")),
+                Long.parseLong(plugin.getProperty("backgroundStaleMillis", "30000"))
+        );
+
+        memberCacheProfile = MemberCacheProfile.fromName(plugin.getProperty("memberCache", "full"));
+        if (memberCacheProfile == MemberCacheProfile.RECENT) {
+            recentMemberPolicy = new RecentMemberCachePolicy(
+                    Long.parseLong(plugin.getProperty("memberCacheMinutes", "30")),
+                    TimeUnit.MINUTES
+            );
+
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    if (shardManager != null) recentMemberPolicy.sweep(shardManager);
+                } catch (Throwable e) {
+                    plugin.getLogger().log(Level.WARNING, "Problem evicting Discord members", e);
+                }
+            }, 1, 1, TimeUnit.MINUTES);
+        } else {
+            recentMemberPolicy = null;
+        }
+
+        callbackExecutor = CallbackExecutor.fromPluginConfiguration(plugin);
+
+        AtomicInteger registrationThreadId = new AtomicInteger();
+        registrationExecutor = Executors.newFixedThreadPool(
+                Integer.parseInt(plugin.getProperty("registrationThreads",
+                        Integer.toString(Runtime.getRuntime().availableProcessors()))),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "discord-registration-" + registrationThreadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+
+        // Decodes received voice for all guilds
+        AtomicInteger receiveThreadId = new AtomicInteger();
+        receiveExecutor = Executors.newFixedThreadPool(
+                Integer.parseInt(plugin.getProperty("receiveThreads",
+                        Integer.toString(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)))),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "discord-receive-" + receiveThreadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+
         try {
-            client = JDABuilder.createDefault(plugin.requireProperty("token"))
-                    .useSharding(
-                            Integer.parseInt(plugin.getProperty("shardId", "0")),
-                            Integer.parseInt(plugin.getProperty("totalShards", "1"))
-                    )
+            DefaultShardManagerBuilder builder = DefaultShardManagerBuilder.createDefault(plugin.requireProperty("token"))
+                    .setShardsTotal(totalShards);
+
+            if (minShardId >= 0)
+                builder.setShards(minShardId, maxShardId);
+
+            shardManager = builder
+                    // Shards share one session controller, which staggers their logins to respect identify limits
+                    .setSessionController(new SessionControllerAdapter())
                     .setAudioSendFactory(new NativeAudioSendFactory())
-                    .setMemberCachePolicy(MemberCachePolicy.ALL)
-                    .enableIntents(GatewayIntent.GUILD_MEMBERS)
-                    .setCallbackPool(Executors.newCachedThreadPool(), true)
+                    .setMemberCachePolicy(memberCacheProfile.createPolicy(recentMemberPolicy))
+                    .setChunkingFilter(memberCacheProfile.getChunkingFilter())
+                    .enableIntents(memberCacheProfile.getIntents())
+                    .setCallbackPool(callbackExecutor, true)
                     .setAutoReconnect(Boolean.parseBoolean(plugin.getProperty("autoReconnect", "true")))
                     .setMaxReconnectDelay(Integer.parseInt(plugin.getProperty("maxReconnectDelay", "900")))
                     .setIdle(Boolean.parseBoolean(plugin.getProperty("idle", "false")))
+                    // Raw events are only needed to see message authors before JDA decides whether to cache them
+                    .setRawEventsEnabled(recentMemberPolicy != null)
                     .addEventListeners(new ListenerAdapter() {
                         @Override
-                        public void onReady(@NotNull ReadyEvent event) {
-                            for (Guild guild : event.getJDA().getGuilds()) {
-                                try {
-                                    getGuildConnection(guild).register();
-                                } catch (Exception e) {
-                                    plugin.getLogger().log(
-                                            Level.WARNING,
-                                            "Problem registering guild " + guild.getId(),
-                                            e
-                                    );
-                                }
+                        public void onRawGateway(@NotNull RawGatewayEvent event) {
+                            // Fired before JDA handles the event, so the author is cached from their first message
+                            if (recentMemberPolicy == null || !"MESSAGE_CREATE".equals(event.getType())) return;
+
+                            try {
+                                DataObject payload = event.getPayload();
+                                if (payload.isNull("guild_id") || payload.isNull("author")) return;
+
+                                DataObject author = payload.getObject("author");
+                                if (author.getBoolean("bot")) return;
+
+                                recentMemberPolicy.seen(payload.getLong("guild_id"), author.getLong("id"));
+                            } catch (Throwable e) {
+                                plugin.getLogger().log(Level.FINE, "Problem reading Discord message author", e);
                             }
+                        }
+
+                        @Override
+                        public void onReady(@NotNull ReadyEvent event) {
+                            JDA.ShardInfo shardInfo = event.getJDA().getShardInfo();
+
+                            registerGuilds(shardInfo, event.getJDA().getGuilds());
 
                             plugin.getLogger().info(
                                     "Connected to discord as " +
-                                    event.getJDA().getSelfUser().getName() + "."
+                                    event.getJDA().getSelfUser().getName() +
+                                    " on shard " + shardInfo.getShardString() + "."
                             );
+
+                            // JDA fires a ReadyEvent again whenever a shard reconnects; count each shard once
+                            if (readyShardIds.add(shardInfo.getShardId())) readyShards.release();
                         }
 
                         @Override
@@ -147,7 +358,19 @@ public class DiscordPlatformConnection
                             try {
                                 User author = event.getMessage().getAuthor();
 
-                                if (author.isBot()) return;
+                                if (author.isBot()) {
+                                    // Bots are never dispatched; their messages are only kept in channels that
+                                    // already have a history
+                                    MessageHistory history = messageHistory.get(event.getChannel().getIdLong(), false);
+                                    if (history != null) history.add(new DiscordChatMessage(
+                                            DiscordPlatformConnection.this,
+                                            new DiscordChatSender(getPlatformUser(author),
+                                                    getChat(event.getMessage().getChannel())),
+                                            event.getMessage()
+                                    ));
+
+                                    return;
+                                }
 
                                 DiscordPlatformUser user = getPlatformUser(author);
 
@@ -161,19 +384,60 @@ public class DiscordPlatformConnection
                                         event.getMessage()
                                 );
 
+                                chat.onMessage(chatMessage);
+
+                                // Refreshes the sighting recorded from the raw event
+                                if (recentMemberPolicy != null && event.isFromGuild())
+                                    recentMemberPolicy.seen(event.getGuild(), author.getIdLong());
+
                                 plugin.getBot().getChatDispatcher().executeAsync(chatMessage);
                             } catch (Throwable e) {
                                 plugin.getLogger().log(Level.WARNING, "Problem handling Discord message", e);
                             }
                         }
 
+                        @Override
+                        public void onMessageUpdate(@NotNull MessageUpdateEvent event) {
+                            try {
+                                MessageHistory history = messageHistory.get(event.getChannel().getIdLong(), false);
+                                if (history != null) history.update(event.getMessage());
+                            } catch (Throwable e) {
+                                plugin.getLogger().log(Level.WARNING, "Problem handling Discord message edit", e);
+                            }
+                        }
+
+                        @Override
+                        public void onMessageDelete(@NotNull MessageDeleteEvent event) {
+                            try {
+                                MessageHistory history = messageHistory.get(event.getChannel().getIdLong(), false);
+                                if (history != null) history.remove(Collections.singleton(event.getMessageIdLong()));
+                            } catch (Throwable e) {
+                                plugin.getLogger().log(Level.WARNING, "Problem handling Discord message deletion", e);
+                            }
+                        }
+
+                        @Override
+                        public void onMessageBulkDelete(@NotNull MessageBulkDeleteEvent event) {
+                            try {
+                                MessageHistory history = messageHistory.get(event.getChannel().getIdLong(), false);
+                                if (history != null)
+                                    history.remove(event.getMessageIds().stream()
+                                            .map(Long::parseLong)
+                                            .collect(Collectors.toSet()));
+                            } catch (Throwable e) {
+                                plugin.getLogger().log(Level.WARNING, "Problem handling Discord message deletion", e);
+                            }
+                        }
+
                         @Override
                         public void onGuildAvailable(@NotNull GuildAvailableEvent event) {
                             try {
-                                event.getGuild().loadMembers().onError(throwable -> {
-                                    plugin.getLogger().log(Level.WARNING, "Problem loading Discord guild members",
-                                            throwable);
-                                });
+                                if (memberCacheProfile.isFull()) {
+                                    event.getGuild().loadMembers().onError(throwable -> {
+                                        plugin.getLogger().log(Level.WARNING, "Problem loading Discord guild members",
+                                                throwable);
+                                    });
+                                }
 
                                 getGuildConnection(event.getGuild()).register();
                             } catch (Throwable e) {
@@ -184,7 +448,9 @@ public class DiscordPlatformConnection
                         @Override
                         public void onGuildUnavailable(@NotNull GuildUnavailableEvent event) {
                             try {
-                                DiscordGuildConnection connection = guildConnections.remove(event.getGuild().getId());
+                                if (recentMemberPolicy != null) recentMemberPolicy.forget(event.getGuild());
+
+                                DiscordGuildConnection connection = guildConnections.remove(event.getGuild().getIdLong());
                                 if (connection != null) connection.unregister();
                             } catch (Throwable e) {
                                 plugin.getLogger().log(Level.WARNING, "Problem unregistering guild connection", e);
@@ -193,6 +459,9 @@ public class DiscordPlatformConnection
 
                         @Override
                         public void onGuildVoiceJoin(@NotNull GuildVoiceJoinEvent event) {
+                            if (recentMemberPolicy != null)
+                                recentMemberPolicy.seen(event.getGuild(), event.getMember().getIdLong());
+
                             DiscordGuildConnection guildConnection = getGuildConnection(event.getGuild());
                             VoiceChannel connectedChannel = event.getGuild().getAudioManager().getConnectedChannel();
                             VoiceChannel joinedChannel = event.getChannelJoined();
@@ -216,6 +485,9 @@ public class DiscordPlatformConnection
                         @Override
                         public void onGuildVoiceLeave(@NotNull GuildVoiceLeaveEvent event) {
                             DiscordGuildConnection guildConnection = getGuildConnection(event.getGuild());
+                            guildConnection.getReceivePipeline().close(event.getMember().getIdLong());
+                            guildConnection.getSpeakingIndex().remove(event.getMember().getIdLong());
+
                             VoiceChannel connectedChannel = event.getGuild().getAudioManager().getConnectedChannel();
                             VoiceChannel leftChannel = event.getChannelLeft();
 
@@ -271,8 +543,27 @@ public class DiscordPlatformConnection
                             plugin.getLogger().log(Level.WARNING, "Problem occurred in JDA", event.getCause());
                         }
                     })
-                    .build()
-                    .awaitReady();
+                    .build();
+
+            int expectedShards = minShardId >= 0 ? maxShardId - minShardId + 1 : shardManager.getShardsTotal();
+            long readyTimeout = Long.parseLong(plugin.getProperty("shardReadyTimeout", "60"));
+
+            // Shards log in one after another, so the timeout applies to each shard becoming ready in turn
+            for (int ready = 0; ready < expectedShards; ready ++) {
+                if (!readyShards.tryAcquire(readyTimeout, TimeUnit.SECONDS)) {
+                    plugin.getLogger().warning(
+                            (expectedShards - ready) + " of " + expectedShards + " Discord shard(s) not ready after "
+                            + readyTimeout + "s, continuing without waiting for them: " +
+                            shardManager.getShards().stream()
+                                    .filter(shard -> shard.getStatus() != JDA.Status.CONNECTED)
+                                    .map(shard -> shard.getShardInfo().getShardString()
+                                            + " (" + shard.getStatus() + ")")
+                                    .collect(Collectors.joining(", "))
+                    );
+
+                    break;
+                }
+            }
         } catch (LoginException e) {
             throw new PluginException("Failed to login to Discord", e);
         } catch (InterruptedException e) {
@@ -282,17 +573,86 @@ public class DiscordPlatformConnection
         plugin.getLogger().info("Discord platform connected.");
     }
 
+    /**
+     * Registers a shard's guilds in parallel on the registration executor.  Guild models are fetched in one query up
+     * front, and audio systems are brought up in the background once every guild connection is registered.
+     */
+    private void registerGuilds(JDA.ShardInfo shardInfo, List<Guild> guilds) {
+        long started = System.nanoTime();
+
+        Map<String, DiscordGuild> models = guildManager.getGuilds(
+                guilds.stream().map(ISnowflake::getId).collect(Collectors.toList())
+        );
+
+        long prefetched = System.nanoTime();
+
+        // The registry creates each guild's connection once, so guilds can be created and registered in parallel
+        List<Callable<DiscordGuildConnection>> registrations = new ArrayList<>(guilds.size());
+        for (Guild guild : guilds) {
+            DiscordGuild model = models.get(guild.getId());
+            registrations.add(() -> {
+                try {
+                    DiscordGuildConnection connection = getGuildConnection(guild, model);
+                    connection.register(false);
+                    return connection;
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.WARNING, "Problem registering guild " + guild.getId(), e);
+                    return null;
+                }
+            });
+        }
+
+        List<DiscordGuildConnection> registered = new ArrayList<>(guilds.size());
+        try {
+            for (Future<DiscordGuildConnection> future :
+                    registrationExecutor.invokeAll(registrations)) {
+                DiscordGuildConnection connection = future.get();
+                if (connection != null) registered.add(connection);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.WARNING, "Problem registering guilds", e.getCause());
+        }
+
+        long connected = System.nanoTime();
+
+        plugin.getLogger().info("Registered " + registered.size() + "/" + guilds.size() + " guilds on shard "
+                + shardInfo.getShardString() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(connected - started) + "ms (prefetch "
+                + TimeUnit.NANOSECONDS.toMillis(prefetched - started) + "ms, connect "
+                + TimeUnit.NANOSECONDS.toMillis(connected - prefetched) + "ms).");
+
+        CompletableFuture.allOf(registered.stream()
+                .filter(connection -> connection.getModel().isMusicEnabled())
+                .map(connection -> CompletableFuture.runAsync(() -> {
+                    try {
+                        connection.registerAudio();
+                    } catch (Exception e) {
+                        plugin.getLogger().log(Level.WARNING,
+                                "Problem registering audio for guild " + connection.getId(), e);
+                    }
+                }, registrationExecutor))
+                .toArray(CompletableFuture[]::new)
+        ).thenRun(() -> plugin.getLogger().info("Registered audio for guilds on shard "
+                + shardInfo.getShardString() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connected) + "ms."));
+    }
+
     @Override
     public void disconnect() {
-        Iterator<Map.Entry<String, DiscordGuildConnection>> connectionIterator =
-                guildConnections.entrySet().iterator();
-
-        while (connectionIterator.hasNext()) {
-            connectionIterator.next().getValue().unregister();
-            connectionIterator.remove();
+        for (DiscordGuildConnection connection : guildConnections.snapshot()) {
+            guildConnections.remove(connection.getGuild().getIdLong());
+            connection.unregister();
         }
 
-        client.shutdownNow();
+        shardManager.shutdown();
+        idleTimers.close();
+        scheduler.shutdownNow();
+        registrationExecutor.shutdownNow();
+        receiveExecutor.shutdownNow();
+        callbackExecutor.shutdown(); // lets callbacks already queued complete their futures
 
         plugin.getLogger().info("Discord platform disconnected.");
     }
@@ -306,7 +666,7 @@ public class DiscordPlatformConnection
 
     @Override
     protected DiscordPlatformUser loadUserById(String id) {
-        User user = client.retrieveUserById(id).complete();
+        User user = shardManager.retrieveUserById(id).complete();
         if (user == null) {
             throw new IllegalArgumentException("Discord user not found: " + id);
         }
@@ -327,12 +687,12 @@ public class DiscordPlatformConnection
 
     @Override
     protected Chat loadChatById(String id) {
-        return loadChat(client.getTextChannelById(id));
+        return loadChat(shardManager.getTextChannelById(id));
     }
 
     @Override
     protected Community loadCommunityById(String id) {
-        return guildConnections.get(id);
+        return guildConnections.get(Long.parseLong(id));
     }
 
     public DiscordPlatformUser getPlatformUser(User user) {
@@ -345,13 +705,17 @@ public class DiscordPlatformConnection
 
     @Override
     public DiscordPlatformUser getSelf() {
-        return getPlatformUser(client.getSelfUser());
+        JDA shard = shardManager.getShardCache().stream()
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No Discord shards are running"));
+
+        return getPlatformUser(shard.getSelfUser());
     }
 
     @Override
     public Collection<PlatformUser> getPlatformUsers() {
         return Collections.unmodifiableCollection(
-                client.getUsers()
+                shardManager.getUsers()
                         .stream()
                         .map(this::getPlatformUser)
                         .collect(Collectors.toList())
@@ -361,7 +725,7 @@ public class DiscordPlatformConnection
     @Override
     public Collection<String> getPlatformUserIds() {
         return Collections.unmodifiableCollection(
-                client.getUsers()
+                shardManager.getUsers()
                 .stream()
                 .map(ISnowflake::getId)
                 .collect(Collectors.toList())
@@ -371,7 +735,7 @@ public class DiscordPlatformConnection
     @Override
     public Collection<Chat> getChats() {
         return Collections.unmodifiableCollection(
-                client.getTextChannels()
+                shardManager.getTextChannels()
                         .stream()
                         .map(this::getChat)
                         .collect(Collectors.toList())
@@ -381,7 +745,7 @@ public class DiscordPlatformConnection
     @Override
     public Collection<String> getChatIds() {
         return Collections.unmodifiableCollection(
-                client.getTextChannels()
+                shardManager.getTextChannels()
                         .stream()
                         .map(ISnowflake::getId)
                         .collect(Collectors.toList())
@@ -391,7 +755,7 @@ public class DiscordPlatformConnection
     @Override
     public Collection<String> getCommunityIds() {
         return Collections.unmodifiableCollection(
-                client.getGuilds()
+                shardManager.getGuilds()
                         .stream()
                         .map(ISnowflake::getId)
                         .collect(Collectors.toList())
@@ -400,13 +764,11 @@ public class DiscordPlatformConnection
 
     @Override
     public Collection<Community> getCommunities() {
-        return guildConnections.values()
-                .stream()
-                .map(connection -> (Community) connection).collect(Collectors.toList());
+        return Collections.unmodifiableCollection(guildConnections.snapshot());
     }
 
     public List<DiscordGuildConnection> getGuildConnections() {
-        return new ArrayList<>(guildConnections.values());
+        return guildConnections.snapshot();
     }
 
     private class DiscordAudioConnection extends AbstractAudioConnection {
@@ -0,0 +1,171 @@
+package io.manebot.plugin.discord.platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel for coarse, frequently rescheduled timeouts (guild idle timeouts).  Timeouts are kept in linked
+ * buckets indexed by their deadline tick, so scheduling, rescheduling and cancelling are O(1), and the whole wheel is
+ * driven by a single periodic task on a shared scheduler.  Timeouts fire on the scheduler's thread, within one tick
+ * after their deadline; they must not block.
+ */
+public class TimerWheel {
+    private final Logger logger;
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final long startNanos;
+    private final ScheduledFuture<?> ticker;
+
+    private long tick = 0L;
+    private int pending = 0;
+
+    public TimerWheel(ScheduledExecutorService scheduler, Logger logger,
+                      long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0L) throw new IllegalArgumentException("tickDuration");
+        if (wheelSize <= 0) throw new IllegalArgumentException("wheelSize");
+
+        this.logger = logger;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Timeout[wheelSize];
+
+        // Each bucket is a circular list around a sentinel
+        for (int i = 0; i < wheelSize; i ++) {
+            Timeout sentinel = new Timeout(null);
+            sentinel.prev = sentinel.next = sentinel;
+            buckets[i] = sentinel;
+        }
+
+        this.startNanos = System.nanoTime();
+        this.ticker = scheduler.scheduleAtFixedRate(this::advance, tickDuration, tickDuration, unit);
+    }
+
+    /**
+     * Creates a timeout handle for a task.  The handle is not scheduled until schedule() is called, and can be
+     * rescheduled any number of times.
+     * @param task task to run when the timeout expires.
+     * @return timeout handle.
+     */
+    public Timeout newTimeout(Runnable task) {
+        if (task == null) throw new NullPointerException();
+        return new Timeout(task);
+    }
+
+    /**
+     * Gets the number of timeouts waiting to expire.
+     */
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    /**
+     * Stops the wheel.  Pending timeouts never expire.
+     */
+    public void close() {
+        ticker.cancel(false);
+    }
+
+    private void advance() {
+        List<Timeout> expired = null;
+
+        synchronized (this) {
+            // Catch up on ticks the scheduler ran late for
+            long target = (System.nanoTime() - startNanos) / tickNanos;
+
+            while (tick < target) {
+                tick ++;
+
+                Timeout sentinel = buckets[(int) (tick % buckets.length)];
+                Timeout timeout = sentinel.next;
+
+                while (timeout != sentinel) {
+                    Timeout next = timeout.next;
+
+                    if (timeout.rounds <= 0L) {
+                        timeout.unlink();
+                        if (expired == null) expired = new ArrayList<>();
+                        expired.add(timeout);
+                    } else
+                        timeout.rounds --;
+
+                    timeout = next;
+                }
+            }
+        }
+
+        if (expired == null) return;
+
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (Throwable e) {
+                logger.log(Level.WARNING, "Problem running timeout", e);
+            }
+        }
+    }
+
+    public final class Timeout {
+        private final Runnable task;
+
+        private Timeout prev, next;
+        private long rounds;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Schedules this timeout, replacing any deadline it already had.
+         * @param delay delay until the timeout expires.
+         * @param unit unit of the delay.
+         */
+        public void schedule(long delay, TimeUnit unit) {
+            long ticks = Math.max(1L, (unit.toNanos(delay) + tickNanos - 1) / tickNanos);
+
+            synchronized (TimerWheel.this) {
+                unlink();
+
+                Timeout sentinel = buckets[(int) ((tick + ticks) % buckets.length)];
+                rounds = (ticks - 1) / buckets.length;
+
+                prev = sentinel.prev;
+                next = sentinel;
+                sentinel.prev.next = this;
+                sentinel.prev = this;
+
+                pending ++;
+            }
+        }
+
+        /**
+         * Cancels this timeout.
+         * @return true if the timeout was pending.
+         */
+        public boolean cancel() {
+            synchronized (TimerWheel.this) {
+                return unlink();
+            }
+        }
+
+        public boolean isPending() {
+            synchronized (TimerWheel.this) {
+                return next != null;
+            }
+        }
+
+        private boolean unlink() {
+            if (next == null) return false;
+
+            prev.next = next;
+            next.prev = prev;
+            prev = next = null;
+
+            pending --;
+            return true;
+        }
+    }
+}
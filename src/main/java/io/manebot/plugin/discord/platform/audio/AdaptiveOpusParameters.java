@@ -0,0 +1,128 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import io.manebot.plugin.audio.opus.OpusParameters;
+
+/**
+ * Works out a guild's Opus encoder parameters.  The bitrate starts from the bitrate configured on the voice channel
+ * the bot is connected to (there's no point sending more than Discord passes on), capped at the configured Opus
+ * bitrate, and the bitrate and complexity are stepped down when the voice connection's ping or jitter gets worse.
+ *
+ * Link quality is tracked from JDA's ping callback as smoothed ping and smoothed ping deviation (jitter).  Quality is
+ * lowered as soon as a ping crosses a threshold, but only raised again after several consecutive better pings, so
+ * the encoder isn't rebuilt back and forth on a noisy link.
+ */
+public class AdaptiveOpusParameters {
+    private static final int MIN_BITRATE = 16000;
+    private static final int MIN_COMPLEXITY = 3;
+
+    /**
+     * Ping and jitter (ms) from which each quality level applies; level 0 is a healthy link.
+     */
+    private static final long[] PING_THRESHOLDS = { 0L, 150L, 300L };
+    private static final long[] JITTER_THRESHOLDS = { 0L, 30L, 80L };
+
+    /**
+     * Share of the bitrate, and complexity steps removed, at each quality level.
+     */
+    private static final float[] BITRATE_SCALE = { 1F, 0.75F, 0.5F };
+    private static final int[] COMPLEXITY_STEP = { 0, 2, 4 };
+
+    private static final int UPGRADE_PINGS = 3;
+
+    private final OpusParameters base;
+    private final int maxBitrate;
+
+    private int channelBitrate;
+    private double ping = -1D;
+    private double jitter = 0D;
+    private int level = 0;
+    private int betterPings = 0;
+
+    public AdaptiveOpusParameters(OpusParameters base, int maxBitrate) {
+        this.base = base;
+        this.maxBitrate = maxBitrate;
+        this.channelBitrate = maxBitrate;
+    }
+
+    /**
+     * Sets the bitrate configured on the voice channel the bot is connected to.
+     * @param bitrate channel bitrate, in bits per second.
+     */
+    public synchronized void setChannelBitrate(int bitrate) {
+        this.channelBitrate = bitrate > 0 ? bitrate : maxBitrate;
+    }
+
+    /**
+     * Adds a ping sample from the voice connection.
+     * @param pingMillis ping, in milliseconds.
+     */
+    public synchronized void onPing(long pingMillis) {
+        if (ping < 0D) {
+            ping = pingMillis;
+        } else {
+            jitter += (Math.abs(pingMillis - ping) - jitter) / 4D;
+            ping += (pingMillis - ping) / 8D;
+        }
+
+        int measured = 0;
+        for (int i = PING_THRESHOLDS.length - 1; i > 0; i --) {
+            if (ping >= PING_THRESHOLDS[i] || jitter >= JITTER_THRESHOLDS[i]) {
+                measured = i;
+                break;
+            }
+        }
+
+        if (measured > level) {
+            level = measured;
+            betterPings = 0;
+        } else if (measured < level) {
+            if (++ betterPings >= UPGRADE_PINGS) {
+                level --;
+                betterPings = 0;
+            }
+        } else
+            betterPings = 0;
+    }
+
+    public synchronized int getBitrate() {
+        // The configured Opus bitrate is a ceiling too, so a lower configured bitrate isn't raised to the channel's
+        int bitrate = Math.min(Math.min(channelBitrate, maxBitrate), base.getOpusBitrate());
+        return Math.max(MIN_BITRATE, (int) (bitrate * BITRATE_SCALE[level]));
+    }
+
+    public synchronized int getComplexity() {
+        return Math.max(Math.min(MIN_COMPLEXITY, base.getOpusComplexity()),
+                base.getOpusComplexity() - COMPLEXITY_STEP[level]);
+    }
+
+    public synchronized int getChannelBitrate() {
+        return channelBitrate;
+    }
+
+    public synchronized long getPing() {
+        return Math.round(ping);
+    }
+
+    public synchronized long getJitter() {
+        return Math.round(jitter);
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    /**
+     * Creates encoder parameters for the current bitrate and complexity, keeping the rest of the configured ones.
+     */
+    public synchronized OpusParameters create() {
+        return new OpusParameters(
+                base.getOpusFrameTime(),
+                getBitrate(),
+                getComplexity(),
+                base.getOpusPacketLoss(),
+                base.isOpusVbr(),
+                base.isOpusFec(),
+                base.isOpusLowDelay()
+        );
+    }
+}
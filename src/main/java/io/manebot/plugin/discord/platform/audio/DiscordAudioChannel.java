@@ -89,8 +89,13 @@ public class DiscordAudioChannel extends AudioChannel {
         platformUser = (DiscordPlatformUser) association.getPlatformUser();
 
         Member member = connection.getGuild().getMemberById(platformUser.getId());
-        if (member == null)
-            throw new IllegalArgumentException("User is not recognized in this guild.");
+        if (member == null) {
+            // Every member cache profile keeps members in voice, so an uncached member can't be in a voice channel
+            if (connection.getPlatformConnection().getMemberCacheProfile().isFull())
+                throw new IllegalArgumentException("User is not recognized in this guild.");
+            else
+                throw new IllegalArgumentException("User is not connected to a voice channel.");
+        }
 
         GuildVoiceState voiceState = member.getVoiceState();
         if (voiceState == null)
@@ -102,6 +107,7 @@ public class DiscordAudioChannel extends AudioChannel {
 
         AudioChannel.Ownership ownership = this.obtain(association);
         try {
+            this.connection.allocateAudio(channel);
             this.connection.getGuild().getAudioManager().openAudioConnection(channel);
 
             /*if (getBlockingPlayers() <= 0 || isIdle()) {
@@ -3,30 +3,333 @@ package io.manebot.plugin.discord.platform.audio;
 import io.manebot.plugin.audio.mixer.output.AbstractOpusMixerSink;
 import io.manebot.plugin.audio.opus.OpusParameters;
 
+import com.sun.jna.ptr.PointerByReference;
+import net.dv8tion.jda.api.audio.AudioNatives;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
+import tomp2p.opuswrapper.Opus;
 
 import javax.sound.sampled.AudioFormat;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Opus mixer sink feeding JDA's audio send loop.  Encoded frames are queued in a lookahead buffer between the mixer
+ * and JDA, so a mixer tick that runs late (GC, CPU contention) is absorbed by buffered frames instead of becoming
+ * audible silence.  Playback starts once the buffer reaches its target depth; each underrun grows the target depth
+ * (up to a maximum), and long stretches without underruns shrink it back towards the configured depth.
+ *
+ * When the mixer keeps running but produces only silence (players paused or quiet), blocks are no longer encoded.
+ * After a short hangover the sink queues the standard Opus silence frames and then stops providing audio, so JDA
+ * drops the speaking flag; encoding resumes with the first audible block.
+ *
+ * The sink runs its own Opus encoder (through the binding JDA ships with) rather than the one in
+ * AbstractOpusMixerSink, which hands out a new array for every packet: 20ms frames are encoded into one reused array
+ * and copied from there into the lookahead buffer's preallocated slots, so nothing is allocated per frame.  The
+ * encoder is native, so a sink must be closed once it is removed from its mixer.
+ */
 public class DiscordMixerSink extends AbstractOpusMixerSink implements AudioSendHandler {
+    /**
+     * Largest Opus packet we expect to hand over; a single Opus frame is at most 1275 bytes, and packets carrying
+     * several frames stay well below this.
+     */
+    static final int MAX_PACKET_SIZE = 4000;
+
+    private static final int FRAMES_PER_SHRINK = 3000; // 60 seconds of 20ms frames
+
+    /**
+     * Samples quieter than this (about -80 dBFS) are considered silent.
+     */
+    private static final float SILENCE_THRESHOLD = 0.0001F;
+
+    /**
+     * How long audio must stay silent before encoding stops, so short pauses aren't cut out.
+     */
+    private static final long SILENCE_HANGOVER_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /**
+     * Opus silence frame, sent five times before going quiet so the receiving decoder doesn't interpolate.
+     */
+    private static final byte[] OPUS_SILENCE = new byte[] { (byte) 0xF8, (byte) 0xFF, (byte) 0xFE };
+    private static final int SILENCE_FRAMES = 5;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Frame handed to JDA on every 20ms tick.  JDA copies (encrypts) the frame into its own packet before asking for
+     * the next one, so a single buffer is reused for every frame.  It is a heap buffer because JDA needs a backing
+     * array to encrypt from; a direct buffer would be copied into a fresh heap buffer on every frame.
+     */
+    private final ByteBuffer frame = ByteBuffer.allocate(MAX_PACKET_SIZE);
+
+    private final Object encoderLock = new Object();
+    private PointerByReference encoder;
+    private final int frameSize; // samples per channel in a 20ms frame
+    private final float[] pcm; // interleaved samples of the frame being filled
+    private int pcmPosition = 0;
+    private final byte[] packet = new byte[MAX_PACKET_SIZE];
+    private final ByteBuffer packetBuffer = ByteBuffer.wrap(packet);
+
+    private final OpusFrameQueue lookahead;
+    private final int minDepth;
+    private final float samplesPerNano;
+
+    private volatile int targetDepth;
+    private volatile boolean buffering = true;
+    private volatile long lastWriteNanos = 0L;
+    private int framesSinceUnderrun = 0;
+    private long silentNanos = 0L;
+    private volatile boolean silent = false;
+    private volatile OpusBroadcast broadcast;
+
+    private volatile long underruns = 0L;
+    private volatile long lateFrames = 0L;
+    private volatile long droppedFrames = 0L;
+    private volatile long skippedBlocks = 0L;
+
     public DiscordMixerSink(AudioFormat audioFormat,
                             OpusParameters opusParameters,
-                            int bufferSizeInBytes) {
+                            int bufferSizeInBytes,
+                            int lookaheadFrames,
+                            int maxLookaheadFrames) {
         super(audioFormat, opusParameters, bufferSizeInBytes);
+
+        this.minDepth = Math.max(1, lookaheadFrames);
+        this.targetDepth = minDepth;
+        this.lookahead = new OpusFrameQueue(Math.max(minDepth, maxLookaheadFrames));
+        this.samplesPerNano = (audioFormat.getSampleRate() * audioFormat.getChannels()) / 1_000_000_000F;
+
+        int sampleRate = (int) audioFormat.getSampleRate();
+        this.frameSize = sampleRate / 50;
+        this.pcm = new float[frameSize * audioFormat.getChannels()];
+        this.encoder = createEncoder(sampleRate, audioFormat.getChannels(), opusParameters);
+    }
+
+    private static PointerByReference createEncoder(int sampleRate, int channels, OpusParameters parameters) {
+        if (!AudioNatives.ensureOpus())
+            throw new IllegalStateException("Opus natives are not available");
+
+        IntBuffer error = IntBuffer.allocate(1);
+        PointerByReference encoder = Opus.INSTANCE.opus_encoder_create(
+                sampleRate,
+                channels,
+                parameters.isOpusLowDelay() ? Opus.OPUS_APPLICATION_RESTRICTED_LOWDELAY : Opus.OPUS_APPLICATION_AUDIO,
+                error
+        );
+
+        if (error.get(0) != Opus.OPUS_OK || encoder == null)
+            throw new IllegalStateException("Failed to create Opus encoder: error " + error.get(0));
+
+        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_BITRATE_REQUEST, parameters.getOpusBitrate());
+        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_COMPLEXITY_REQUEST, parameters.getOpusComplexity());
+        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_VBR_REQUEST, parameters.isOpusVbr() ? 1 : 0);
+        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_INBAND_FEC_REQUEST, parameters.isOpusFec() ? 1 : 0);
+        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_PACKET_LOSS_PERC_REQUEST,
+                (int) Math.round((double) parameters.getOpusPacketLoss()));
+
+        return encoder;
+    }
+
+    /**
+     * Releases the native encoder.  Blocks written after this are dropped.
+     */
+    public void close() {
+        synchronized (encoderLock) {
+            if (encoder == null) return;
+
+            Opus.INSTANCE.opus_encoder_destroy(encoder);
+            encoder = null;
+        }
+    }
+
+    @Override
+    public void write(float[] buffer, int len) {
+        long now = System.nanoTime();
+        long last = lastWriteNanos;
+
+        // A write arriving well after the previous block should have finished playing means the mixer ran late
+        if (last > 0L && len > 0) {
+            long expectedNanos = (long) (len / samplesPerNano);
+            if (now - last > expectedNanos + (expectedNanos / 2) && now - last < IDLE_NANOS)
+                lateFrames ++;
+        }
+
+        lastWriteNanos = now;
+
+        if (isSilent(buffer, len)) {
+            silentNanos += (long) (len / samplesPerNano);
+
+            if (silent) {
+                skippedBlocks ++;
+                return;
+            }
+
+            if (silentNanos >= SILENCE_HANGOVER_NANOS) {
+                // Flush the partly filled frame, then close out the stream with silence frames
+                if (pcmPosition > 0) {
+                    Arrays.fill(pcm, pcmPosition, pcm.length, 0F);
+                    encodeFrame();
+                }
+
+                for (int i = 0; i < SILENCE_FRAMES; i ++)
+                    queueFrame(OPUS_SILENCE, 0, OPUS_SILENCE.length);
+
+                buffering = false; // let the tail out even if the buffer never filled
+                silent = true;
+                skippedBlocks ++;
+                return;
+            }
+        } else {
+            silentNanos = 0L;
+
+            if (silent) {
+                silent = false;
+                buffering = true;
+            }
+        }
+
+        encode(buffer, len);
+
+        if (buffering && lookahead.size() >= targetDepth)
+            buffering = false;
+    }
+
+    private static boolean isSilent(float[] buffer, int len) {
+        for (int i = 0; i < len; i ++) {
+            float sample = buffer[i];
+            if (sample > SILENCE_THRESHOLD || sample < -SILENCE_THRESHOLD)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Fills frames from the mixer's block, encoding each one as it fills up.
+     */
+    private void encode(float[] buffer, int len) {
+        int offset = 0;
+        while (offset < len) {
+            int count = Math.min(len - offset, pcm.length - pcmPosition);
+            System.arraycopy(buffer, offset, pcm, pcmPosition, count);
+            pcmPosition += count;
+            offset += count;
+
+            if (pcmPosition == pcm.length) encodeFrame();
+        }
+    }
+
+    /**
+     * Encodes the filled frame into the reused packet array and queues it.
+     */
+    private void encodeFrame() {
+        pcmPosition = 0;
+
+        int length;
+        synchronized (encoderLock) {
+            if (encoder == null) return; // closed
+
+            length = Opus.INSTANCE.opus_encode_float(encoder, pcm, frameSize, packetBuffer, packet.length);
+        }
+
+        if (length <= 0) {
+            // A negative length is an Opus error code; the frame is lost either way
+            droppedFrames ++;
+            return;
+        }
+
+        queueFrame(packet, 0, length);
+    }
+
+    private void queueFrame(byte[] packet, int offset, int length) {
+        if (lookahead.offer(packet, offset, length))
+            droppedFrames ++;
+
+        OpusBroadcast broadcast = this.broadcast;
+        if (broadcast != null)
+            broadcast.publish(packet, offset, length);
+    }
+
+    /**
+     * Sets the broadcast that every frame encoded by this sink is also published to.
+     * @param broadcast broadcast, or null to stop publishing.
+     */
+    public void setBroadcast(OpusBroadcast broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    public OpusBroadcast getBroadcast() {
+        return broadcast;
+    }
+
+    private boolean isMixerIdle() {
+        return System.nanoTime() - lastWriteNanos > IDLE_NANOS;
     }
 
     @Override
     public boolean canProvide() {
-        return isReady();
+        int depth = lookahead.size();
+
+        if (buffering) {
+            // Let out what is left at the end of a stream, even if it never filled the buffer
+            return depth > 0 && isMixerIdle();
+        }
+
+        if (depth > 0) return true;
+
+        if (!silent && !isMixerIdle()) {
+            // The mixer is still producing, but fell behind: rebuffer, with more headroom this time
+            underruns ++;
+            framesSinceUnderrun = 0;
+            targetDepth = Math.min(lookahead.capacity(), targetDepth + 1);
+        }
+
+        buffering = true;
+        return false;
     }
 
     @Override
     public ByteBuffer provide20MsAudio() {
-        return ByteBuffer.wrap(DiscordMixerSink.this.provide());
+        if (!lookahead.poll(frame)) return null;
+
+        if (++ framesSinceUnderrun >= FRAMES_PER_SHRINK) {
+            framesSinceUnderrun = 0;
+            targetDepth = Math.max(minDepth, targetDepth - 1);
+        }
+
+        return frame;
     }
 
     @Override
     public boolean isOpus() {
         return true;
     }
+
+    public int getLookaheadDepth() {
+        return lookahead.size();
+    }
+
+    public int getTargetDepth() {
+        return targetDepth;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getLateFrames() {
+        return lateFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public boolean isSilent() {
+        return silent;
+    }
+
+    public long getSkippedBlocks() {
+        return skippedBlocks;
+    }
 }
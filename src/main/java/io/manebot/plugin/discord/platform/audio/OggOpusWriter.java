@@ -0,0 +1,225 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes Opus packets into an Ogg/Opus file (RFC 7845) as they are, without decoding.  Packets are gathered into Ogg
+ * pages in memory and pages into a large write buffer, so the file channel only sees large sequential writes.  The
+ * file is forced to disk when it is closed.
+ *
+ * Packets are assumed to be 20ms, 48 kHz stereo, which is what Discord sends.  Gaps between packets (the speaker
+ * going quiet) are filled with Opus silence frames so the recording keeps its timing.
+ */
+public class OggOpusWriter implements AutoCloseable {
+    private static final int SAMPLES_PER_PACKET = 960;
+    private static final int PRE_SKIP = 312;
+
+    /**
+     * Most packets gathered into a page before it is written out (one second of audio).
+     */
+    private static final int PACKETS_PER_PAGE = 50;
+    private static final int MAX_SEGMENTS = 255;
+
+    /**
+     * Longest gap filled with silence; longer gaps are shortened to this, so a speaker who is quiet for hours doesn't
+     * fill the file with silence.
+     */
+    private static final long MAX_GAP_SAMPLES = 48000L * 60L;
+
+    private static final byte[] OPUS_SILENCE = new byte[] { (byte) 0xF8, (byte) 0xFF, (byte) 0xFE };
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i ++) {
+            int crc = i << 24;
+            for (int bit = 0; bit < 8; bit ++)
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer;
+    private final int serial;
+
+    // Page being assembled
+    private final byte[] segments = new byte[MAX_SEGMENTS];
+    private final ByteBuffer pageBody = ByteBuffer.allocate(MAX_SEGMENTS * 255);
+    private final byte[] page = new byte[27 + MAX_SEGMENTS + MAX_SEGMENTS * 255];
+    private int segmentCount = 0;
+    private int pagePackets = 0;
+    private int pageSequence = 0;
+
+    private long granule = 0L;
+    private long lastTimestamp = -1L;
+    private long bytesWritten = 0L;
+    private boolean closed = false;
+
+    public OggOpusWriter(Path path, int serial, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+        this.serial = serial;
+
+        try {
+            writeHeaders();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private void writeHeaders() throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put("OpusHead".getBytes(StandardCharsets.US_ASCII));
+        head.put((byte) 1); // version
+        head.put((byte) 2); // channels
+        head.putShort((short) PRE_SKIP);
+        head.putInt(48000); // input sample rate
+        head.putShort((short) 0); // output gain
+        head.put((byte) 0); // channel mapping family
+        addPacket(head.array(), 0, head.position());
+        flushPage(0x02, 0L);
+
+        byte[] vendor = "manebot-discord".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer tags = ByteBuffer.allocate(8 + 4 + vendor.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        tags.put("OpusTags".getBytes(StandardCharsets.US_ASCII));
+        tags.putInt(vendor.length);
+        tags.put(vendor);
+        tags.putInt(0); // no user comments
+        addPacket(tags.array(), 0, tags.position());
+        flushPage(0x00, 0L);
+    }
+
+    /**
+     * Writes an Opus packet.
+     * @param packet packet data.
+     * @param timestamp RTP timestamp of the packet (48 kHz units), used to fill gaps with silence.
+     */
+    public void write(byte[] packet, int timestamp) throws IOException {
+        if (closed) throw new IOException("writer is closed");
+
+        long now = timestamp & 0xFFFFFFFFL;
+        if (lastTimestamp >= 0L) {
+            long gap = ((now - lastTimestamp) & 0xFFFFFFFFL) - SAMPLES_PER_PACKET;
+
+            // Late or reordered packets (a "negative" gap) are written as they come
+            if (gap > 0L && gap < 0x80000000L) {
+                for (long filled = 0L; filled < Math.min(gap, MAX_GAP_SAMPLES); filled += SAMPLES_PER_PACKET)
+                    writePacket(OPUS_SILENCE, 0, OPUS_SILENCE.length);
+            }
+        }
+
+        lastTimestamp = now;
+        writePacket(packet, 0, packet.length);
+    }
+
+    private void writePacket(byte[] packet, int offset, int length) throws IOException {
+        if (segmentCount + (length / 255) + 1 > MAX_SEGMENTS)
+            flushPage(0x00, granule);
+
+        addPacket(packet, offset, length);
+        granule += SAMPLES_PER_PACKET;
+
+        if (++ pagePackets >= PACKETS_PER_PAGE)
+            flushPage(0x00, granule);
+    }
+
+    private void addPacket(byte[] packet, int offset, int length) {
+        // Lacing: a run of 255s followed by the remainder (0 if the length is a multiple of 255)
+        int remaining = length;
+        while (remaining >= 255) {
+            segments[segmentCount ++] = (byte) 255;
+            remaining -= 255;
+        }
+        segments[segmentCount ++] = (byte) remaining;
+
+        pageBody.put(packet, offset, length);
+    }
+
+    private void flushPage(int flags, long granulePosition) throws IOException {
+        if (segmentCount == 0 && (flags & 0x04) == 0) return;
+
+        int bodyLength = pageBody.position();
+        ByteBuffer header = ByteBuffer.wrap(page).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) 'O').put((byte) 'g').put((byte) 'g').put((byte) 'S');
+        header.put((byte) 0); // version
+        header.put((byte) flags);
+        header.putLong(granulePosition);
+        header.putInt(serial);
+        header.putInt(pageSequence ++);
+        header.putInt(0); // CRC, filled in below
+        header.put((byte) segmentCount);
+        header.put(segments, 0, segmentCount);
+        header.put(pageBody.array(), 0, bodyLength);
+
+        int pageLength = header.position();
+        int crc = 0;
+        for (int i = 0; i < pageLength; i ++)
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ page[i]) & 0xFF];
+        header.putInt(22, crc);
+
+        put(page, pageLength);
+
+        segmentCount = 0;
+        pagePackets = 0;
+        pageBody.clear();
+    }
+
+    private void put(byte[] data, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (!writeBuffer.hasRemaining()) drain();
+
+            int chunk = Math.min(writeBuffer.remaining(), length - offset);
+            writeBuffer.put(data, offset, chunk);
+            offset += chunk;
+        }
+
+        bytesWritten += length;
+    }
+
+    private void drain() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining())
+            channel.write(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    /**
+     * Gets the size of the file, including what is still buffered.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets the length of the recording, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return granule / 48L;
+    }
+
+    /**
+     * Ends the stream, writes out everything buffered and forces it to disk.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            flushPage(0x04, granule);
+            drain();
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import net.dv8tion.jda.api.audio.AudioSendHandler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Fans out the Opus frames of one mixer to any number of guilds.  Frames are encoded once, by the source guild's
+ * sink, and published into a shared ring buffer; each subscribed guild reads the ring through its own cursor.  A
+ * subscriber that falls too far behind skips ahead (dropping frames) rather than holding up the source or the other
+ * subscribers.
+ *
+ * When the source stops broadcasting it closes the broadcast, which removes every subscriber and calls its close
+ * callback so the subscribed guild can take its voice connection back.
+ */
+public class OpusBroadcast {
+    private static final int SLOT_SIZE = 1275;
+
+    /**
+     * How far behind the newest frame a subscriber starts, and is put back to when it falls off the ring.
+     */
+    private static final int SUBSCRIBER_LAG = 3;
+
+    private final String id;
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Sequence number of the next frame to be published; frame n lives in slot n % capacity
+    private volatile long published = 0L;
+    private boolean closed = false;
+
+    public OpusBroadcast(String id, int capacity) {
+        this.id = id;
+        this.slots = new byte[capacity][SLOT_SIZE];
+        this.lengths = new int[capacity];
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Publishes a frame to all subscribers.  Only the source sink publishes, from a single thread.
+     */
+    void publish(byte[] packet, int offset, int length) {
+        if (length > SLOT_SIZE) return;
+
+        long sequence = published;
+        int index = (int) (sequence % slots.length);
+
+        System.arraycopy(packet, offset, slots[index], 0, length);
+        lengths[index] = length;
+
+        published = sequence + 1;
+    }
+
+    /**
+     * Subscribes to this broadcast.
+     * @param onClosed called with the subscriber if the broadcast is closed while it is subscribed.
+     * @return subscriber, to be handed to JDA as a send handler.
+     * @throws IllegalStateException if the broadcast is closed.
+     */
+    public synchronized Subscriber subscribe(Consumer<Subscriber> onClosed) {
+        if (closed) throw new IllegalStateException("broadcast of guild " + id + " is closed");
+
+        Subscriber subscriber = new Subscriber(onClosed);
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    public Collection<Subscriber> getSubscribers() {
+        return Collections.unmodifiableCollection(subscribers);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes this broadcast, removing every subscriber and calling their close callbacks.  Callbacks are called on
+     * the calling thread, so it must not hold locks a subscribed guild may take.
+     */
+    public void close() {
+        List<Subscriber> closing;
+
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+
+            closing = new ArrayList<>(subscribers);
+            subscribers.clear();
+        }
+
+        for (Subscriber subscriber : closing)
+            subscriber.onClosed.accept(subscriber);
+    }
+
+    /**
+     * One guild's view of a broadcast, handed to JDA as that guild's send handler.
+     */
+    public class Subscriber implements AudioSendHandler {
+        private final ByteBuffer frame = ByteBuffer.allocate(SLOT_SIZE);
+        private final Consumer<Subscriber> onClosed;
+        private long cursor = Math.max(0L, published - SUBSCRIBER_LAG);
+        private volatile long droppedFrames = 0L;
+
+        private Subscriber(Consumer<Subscriber> onClosed) {
+            this.onClosed = onClosed;
+        }
+
+        public OpusBroadcast getBroadcast() {
+            return OpusBroadcast.this;
+        }
+
+        public long getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        private void catchUp(long head) {
+            // Frames older than this may be overwritten while we read them
+            long oldest = head - slots.length + SUBSCRIBER_LAG;
+            if (cursor < oldest) {
+                long skipTo = head - SUBSCRIBER_LAG;
+                droppedFrames += skipTo - cursor;
+                cursor = skipTo;
+            }
+        }
+
+        @Override
+        public boolean canProvide() {
+            long head = published;
+            catchUp(head);
+            return cursor < head;
+        }
+
+        @Override
+        public ByteBuffer provide20MsAudio() {
+            long head = published;
+            catchUp(head);
+            if (cursor >= head) return null;
+
+            int index = (int) (cursor % slots.length);
+            frame.clear();
+            frame.put(slots[index], 0, lengths[index]);
+            frame.flip();
+
+            // If the source lapped us while copying, the frame may be torn; drop it
+            if (published - cursor >= slots.length) {
+                droppedFrames ++;
+                cursor ++;
+                return null;
+            }
+
+            cursor ++;
+            return frame;
+        }
+
+        @Override
+        public boolean isOpus() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded FIFO of Opus frames backed by preallocated slots, so queueing and taking frames doesn't allocate.  When the
+ * queue is full, the oldest frame is dropped to make room.
+ */
+class OpusFrameQueue {
+    /**
+     * Slot size; the largest single Opus frame is 1275 bytes.  Larger packets grow their slot.
+     */
+    private static final int SLOT_SIZE = 1275;
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private int head = 0;
+    private int size = 0;
+
+    OpusFrameQueue(int capacity) {
+        this.slots = new byte[capacity][SLOT_SIZE];
+        this.lengths = new int[capacity];
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a frame to the end of the queue.
+     * @param packet array holding the frame.
+     * @param offset offset of the frame in the array.
+     * @param length length of the frame.
+     * @return true if the oldest frame was dropped to make room.
+     */
+    synchronized boolean offer(byte[] packet, int offset, int length) {
+        boolean dropped = false;
+        if (size == slots.length) {
+            head = (head + 1) % slots.length;
+            size --;
+            dropped = true;
+        }
+
+        int index = (head + size) % slots.length;
+        if (slots[index].length < length)
+            slots[index] = new byte[length];
+
+        System.arraycopy(packet, offset, slots[index], 0, length);
+        lengths[index] = length;
+        size ++;
+
+        return dropped;
+    }
+
+    /**
+     * Takes the frame at the front of the queue, copying it into a buffer.
+     * @param target buffer to copy the frame into; cleared and flipped for reading.
+     * @return true if a frame was taken, false if the queue was empty.
+     */
+    synchronized boolean poll(ByteBuffer target) {
+        if (size == 0) return false;
+
+        target.clear();
+        target.put(slots[head], 0, lengths[head]);
+        target.flip();
+
+        head = (head + 1) % slots.length;
+        size --;
+
+        return true;
+    }
+
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,311 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks who is speaking in a guild's voice connection, as reported by JDA's speaking callback.  Users are kept in an
+ * open-addressing table of primitive arrays, so updates and lookups don't allocate.
+ *
+ * Speaking changes are reported to a listener with debouncing: a start is reported as soon as the user starts
+ * speaking, but a stop only once they have stayed quiet for the debounce interval.  A user who keeps pausing briefly
+ * is reported as one start and one stop.
+ */
+public class SpeakingIndex {
+    private static final byte SPEAKING = 0x1; // as last reported by JDA
+    private static final byte REPORTED = 0x2; // a start was reported to the listener, and no stop yet
+
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger;
+    private final long debounceNanos;
+    private final Listener listener;
+
+    private long[] keys = new long[16]; // user IDs; 0 marks an empty slot
+    private byte[] states = new byte[16];
+    private long[] startedNanos = new long[16]; // when the reported start happened
+    private long[] stoppedNanos = new long[16]; // when JDA last reported the user stopped
+    private int size = 0;
+    private int speaking = 0;
+    private int pendingStops = 0;
+    private boolean sweepScheduled = false;
+
+    public SpeakingIndex(ScheduledExecutorService scheduler, Logger logger, long debounceMillis, Listener listener) {
+        this.scheduler = scheduler;
+        this.logger = logger;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.listener = listener;
+    }
+
+    /**
+     * Updates a user's speaking state; called from JDA's speaking callback.
+     * @param userId user ID.
+     * @param isSpeaking true if the user started speaking, false if they stopped.
+     */
+    public void update(long userId, boolean isSpeaking) {
+        long now = System.nanoTime();
+        boolean started = false;
+
+        synchronized (this) {
+            int slot = slot(userId, isSpeaking);
+            if (slot < 0) return; // unknown user stopped speaking
+
+            byte state = states[slot];
+
+            if (isSpeaking) {
+                if ((state & SPEAKING) != 0) return;
+                speaking ++;
+
+                if ((state & REPORTED) == 0) {
+                    state |= REPORTED;
+                    startedNanos[slot] = now;
+                    started = true;
+                } else
+                    pendingStops --; // resumed within the debounce interval
+
+                states[slot] = (byte) (state | SPEAKING);
+            } else {
+                if ((state & SPEAKING) == 0) return;
+                speaking --;
+
+                states[slot] = (byte) (state & ~SPEAKING);
+                stoppedNanos[slot] = now;
+                pendingStops ++;
+                scheduleSweep(debounceNanos);
+            }
+        }
+
+        if (started) report(userId, true, 0L);
+    }
+
+    /**
+     * Removes a user, i.e. when they leave the voice channel.  A pending stop is reported right away.
+     * @param userId user ID.
+     */
+    public void remove(long userId) {
+        long duration = -1L;
+
+        synchronized (this) {
+            int slot = slot(userId, false);
+            if (slot < 0) return;
+
+            byte state = states[slot];
+            if ((state & SPEAKING) != 0) speaking --;
+            else if ((state & REPORTED) != 0) pendingStops --;
+
+            if ((state & REPORTED) != 0)
+                duration = System.nanoTime() - startedNanos[slot];
+
+            delete(slot);
+        }
+
+        if (duration >= 0L) report(userId, false, TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+
+    /**
+     * Removes every user, reporting pending stops.
+     */
+    public void clear() {
+        long[] users;
+
+        synchronized (this) {
+            users = new long[size];
+            int n = 0;
+            for (long key : keys)
+                if (key != 0L) users[n ++] = key;
+        }
+
+        for (long userId : users)
+            remove(userId);
+    }
+
+    /**
+     * Finds if a user is speaking, including the debounce interval after they last stopped.
+     * @param userId user ID.
+     * @return true if the user is speaking.
+     */
+    public synchronized boolean isSpeaking(long userId) {
+        int slot = slot(userId, false);
+        return slot >= 0 && (states[slot] & REPORTED) != 0;
+    }
+
+    /**
+     * Gets how long a user has been speaking.
+     * @param userId user ID.
+     * @return milliseconds since the user started speaking, or -1 if they aren't speaking.
+     */
+    public synchronized long getSpeakingMillis(long userId) {
+        int slot = slot(userId, false);
+        if (slot < 0 || (states[slot] & REPORTED) == 0) return -1L;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos[slot]);
+    }
+
+    /**
+     * Gets the users speaking right now, as last reported by JDA (without the debounce interval).
+     * @return user IDs.
+     */
+    public synchronized long[] getSpeakingUsers() {
+        long[] users = new long[speaking];
+        int n = 0;
+        for (int i = 0; i < keys.length && n < users.length; i ++)
+            if (keys[i] != 0L && (states[i] & SPEAKING) != 0) users[n ++] = keys[i];
+        return users;
+    }
+
+    public synchronized int getSpeakingCount() {
+        return speaking;
+    }
+
+    /**
+     * Gets the number of users known to this index.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void scheduleSweep(long delayNanos) {
+        if (sweepScheduled) return;
+        sweepScheduled = true;
+
+        try {
+            scheduler.schedule(this::sweep, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            sweepScheduled = false; // shutting down
+        }
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        long[] stopped = null;
+        long[] durations = null;
+        int n = 0;
+
+        synchronized (this) {
+            sweepScheduled = false;
+            if (pendingStops <= 0) return;
+
+            long nextDue = Long.MAX_VALUE;
+
+            for (int i = 0; i < keys.length; i ++) {
+                if (keys[i] == 0L || states[i] != REPORTED) continue;
+
+                long quiet = now - stoppedNanos[i];
+                if (quiet >= debounceNanos) {
+                    if (stopped == null) {
+                        stopped = new long[pendingStops];
+                        durations = new long[pendingStops];
+                    }
+
+                    states[i] = 0;
+                    pendingStops --;
+                    stopped[n] = keys[i];
+                    durations[n ++] = TimeUnit.NANOSECONDS.toMillis(stoppedNanos[i] - startedNanos[i]);
+                } else
+                    nextDue = Math.min(nextDue, debounceNanos - quiet);
+            }
+
+            if (pendingStops > 0) scheduleSweep(nextDue);
+        }
+
+        for (int i = 0; i < n; i ++)
+            report(stopped[i], false, durations[i]);
+    }
+
+    private void report(long userId, boolean isSpeaking, long durationMillis) {
+        try {
+            listener.onSpeaking(userId, isSpeaking, durationMillis);
+        } catch (Throwable e) {
+            logger.log(Level.WARNING, "Problem reporting speaking state", e);
+        }
+    }
+
+    // Open addressing with linear probing ============================================================================
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slot(long key, boolean insert) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+
+        while (keys[i] != 0L) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+
+        if (!insert) return -1;
+
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+            return slot(key, true);
+        }
+
+        keys[i] = key;
+        states[i] = 0;
+        size ++;
+        return i;
+    }
+
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        keys[slot] = 0L;
+        states[slot] = 0;
+        size --;
+
+        // Shift back later entries of the probe run so lookups don't stop at the hole
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (keys[i] != 0L) {
+            int home = hash(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                states[hole] = states[i];
+                startedNanos[hole] = startedNanos[i];
+                stoppedNanos[hole] = stoppedNanos[i];
+                keys[i] = 0L;
+                states[i] = 0;
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        byte[] oldStates = states;
+        long[] oldStarted = startedNanos;
+        long[] oldStopped = stoppedNanos;
+
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        states = new byte[capacity];
+        startedNanos = new long[capacity];
+        stoppedNanos = new long[capacity];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i ++) {
+            if (oldKeys[i] == 0L) continue;
+            int slot = slot(oldKeys[i], true);
+            states[slot] = oldStates[i];
+            startedNanos[slot] = oldStarted[i];
+            stoppedNanos[slot] = oldStopped[i];
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called when a user starts or stops speaking, after debouncing.  Called without any lock held, from JDA's
+         * audio thread (starts) or the scheduler (stops).
+         * @param userId user ID.
+         * @param speaking true if the user started speaking, false if they stopped.
+         * @param durationMillis for a stop, how long the user spoke; 0 for a start.
+         */
+        void onSpeaking(long userId, boolean speaking, long durationMillis);
+    }
+}
@@ -0,0 +1,316 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import net.dv8tion.jda.api.audio.OpusPacket;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives a guild's incoming voice.  JDA's receive thread only enqueues each Opus packet onto its speaker's stream;
+ * streams are bounded and drop their oldest packet when full.  Each stream is decoded, in order, by a task on a
+ * worker pool shared by all guilds, and the decoded PCM (48 kHz, 16-bit, stereo, interleaved) is handed to the
+ * registered listeners.  Packet listeners get each packet as received, still encoded; packets are only decoded while
+ * there are audio listeners.
+ *
+ * Decoding uses JDA's per-speaker decoder (OpusPacket.decode()), which needs the opus natives.  When they aren't
+ * available packets are counted as undecodable and dropped.  Nothing is queued while there are no listeners.
+ */
+public class VoiceReceivePipeline {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Packets decoded per task before the stream yields its worker to other streams.
+     */
+    private static final int DRAIN_BATCH = 16;
+
+    private final Executor executor;
+    private final Logger logger;
+    private final int queueSize;
+    private final Map<Long, UserStream> streams = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final List<PacketListener> packetListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder receivedPackets = new LongAdder();
+    private final LongAdder decodedPackets = new LongAdder();
+    private final LongAdder droppedPackets = new LongAdder();
+    private final LongAdder undecodablePackets = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public VoiceReceivePipeline(Executor executor, Logger logger, int queueSize) {
+        this.executor = executor;
+        this.logger = logger;
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void addPacketListener(PacketListener listener) {
+        packetListeners.add(listener);
+    }
+
+    public void removePacketListener(PacketListener listener) {
+        packetListeners.remove(listener);
+    }
+
+    /**
+     * Finds if received packets are wanted at all; JDA doesn't hand packets over while this is false.
+     */
+    public boolean isActive() {
+        return !listeners.isEmpty() || !packetListeners.isEmpty();
+    }
+
+    /**
+     * Enqueues a packet from JDA's receive thread.  Never blocks.
+     * @param packet received packet.
+     */
+    public void handle(OpusPacket packet) {
+        if (!isActive()) return;
+
+        receivedPackets.increment();
+        streams.computeIfAbsent(packet.getUserId(), UserStream::new).offer(packet);
+    }
+
+    /**
+     * Discards the stream of a user, i.e. when they leave the voice channel.  Packet listeners are told from the
+     * stream's own task, after any packet still being delivered, and no packet of the stream is delivered after that.
+     * @param userId user ID.
+     */
+    public void close(long userId) {
+        UserStream stream = streams.remove(userId);
+        if (stream != null)
+            stream.close();
+        else
+            notifyClosed(userId);
+    }
+
+    private void notifyClosed(long userId) {
+        for (PacketListener listener : packetListeners) {
+            try {
+                listener.onUserClosed(userId);
+            } catch (Throwable e) {
+                logger.log(Level.WARNING, "Problem closing received audio stream", e);
+            }
+        }
+    }
+
+    /**
+     * Discards all streams.
+     */
+    public void clear() {
+        for (Long userId : streams.keySet())
+            close(userId);
+    }
+
+    public int getStreams() {
+        return streams.size();
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (UserStream stream : streams.values())
+            depth += stream.size();
+        return depth;
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets.sum();
+    }
+
+    public long getDecodedPackets() {
+        return decodedPackets.sum();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    public long getUndecodablePackets() {
+        return undecodablePackets.sum();
+    }
+
+    /**
+     * Gets the CPU time spent decoding and handing packets to packet listeners, in nanoseconds (wall time if the JVM
+     * can't measure thread CPU time).
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    private static long cpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private class UserStream implements Runnable {
+        private final long userId;
+        private final ArrayDeque<OpusPacket> packets;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicBoolean closeDelivered = new AtomicBoolean(false);
+        private volatile boolean closed = false;
+
+        private UserStream(long userId) {
+            this.userId = userId;
+            this.packets = new ArrayDeque<>(Math.min(queueSize, 64));
+        }
+
+        private void offer(OpusPacket packet) {
+            synchronized (packets) {
+                if (closed) return; // raced with close(); the next packet opens a new stream
+
+                if (packets.size() >= queueSize) {
+                    packets.pollFirst();
+                    droppedPackets.increment();
+                }
+
+                packets.addLast(packet);
+            }
+
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down; nothing will decode these
+                scheduled.set(false);
+                droppedPackets.add(clear());
+                if (closed) deliverClose();
+            }
+        }
+
+        private void close() {
+            synchronized (packets) {
+                closed = true;
+                packets.clear();
+            }
+
+            schedule();
+        }
+
+        private void deliverClose() {
+            if (closeDelivered.compareAndSet(false, true)) notifyClosed(userId);
+        }
+
+        private int clear() {
+            synchronized (packets) {
+                int size = packets.size();
+                packets.clear();
+                return size;
+            }
+        }
+
+        private int size() {
+            synchronized (packets) {
+                return packets.size();
+            }
+        }
+
+        private OpusPacket poll() {
+            synchronized (packets) {
+                return packets.pollFirst();
+            }
+        }
+
+        @Override
+        public void run() {
+            long started = cpuNanos();
+
+            try {
+                for (int i = 0; i < DRAIN_BATCH && !closed; i ++) {
+                    OpusPacket packet = poll();
+                    if (packet == null) break;
+
+                    for (PacketListener listener : packetListeners) {
+                        try {
+                            listener.onUserPacket(userId, packet);
+                        } catch (Throwable e) {
+                            logger.log(Level.WARNING, "Problem handling received packet", e);
+                        }
+                    }
+
+                    if (listeners.isEmpty()) continue;
+
+                    if (!packet.canDecode()) {
+                        undecodablePackets.increment();
+                        continue;
+                    }
+
+                    short[] pcm = packet.decode();
+                    if (pcm == null) {
+                        undecodablePackets.increment();
+                        continue;
+                    }
+
+                    decodedPackets.increment();
+
+                    for (Listener listener : listeners) {
+                        try {
+                            listener.onUserAudio(userId, pcm);
+                        } catch (Throwable e) {
+                            logger.log(Level.WARNING, "Problem handling received audio", e);
+                        }
+                    }
+                }
+
+                if (closed) deliverClose();
+            } finally {
+                decodeNanos.add(cpuNanos() - started);
+                scheduled.set(false);
+            }
+
+            // More arrived (or the batch ran out, or the stream was closed) while we were decoding
+            if (closed ? !closeDelivered.get() : size() > 0) schedule();
+        }
+    }
+
+    /**
+     * Receives decoded voice, one stream per speaking user.  Called from the shared decode pool; packets of one user
+     * are delivered in order, never concurrently.
+     */
+    public interface Listener {
+        /**
+         * Called with 20ms of decoded audio from a user.
+         * @param userId ID of the speaking user.
+         * @param pcm 48 kHz, 16-bit, stereo interleaved samples.
+         */
+        void onUserAudio(long userId, short[] pcm);
+    }
+
+    /**
+     * Receives voice packets as they were sent, without decoding.  Called from the shared decode pool; packets of one
+     * user are delivered in order, never concurrently.
+     */
+    public interface PacketListener {
+        /**
+         * Called with an Opus packet received from a user.
+         * @param userId ID of the speaking user.
+         * @param packet received packet.
+         */
+        void onUserPacket(long userId, OpusPacket packet);
+
+        /**
+         * Called when a user's stream is closed, i.e. they left the voice channel.
+         * @param userId user ID.
+         */
+        default void onUserClosed(long userId) { }
+    }
+}
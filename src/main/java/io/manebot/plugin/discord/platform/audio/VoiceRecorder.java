@@ -0,0 +1,155 @@
+package io.manebot.plugin.discord.platform.audio;
+
+import net.dv8tion.jda.api.audio.OpusPacket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records a guild's received voice into one Ogg/Opus file per speaker, writing the packets as they were received.
+ * Each speaker's recording is split into segments by size and by length, so a session of any length only ever holds
+ * one open segment (and its write buffer) per speaker.
+ *
+ * Files are written to {@code <directory>/<session>/<user ID>-<segment>.opus}.
+ */
+public class VoiceRecorder implements VoiceReceivePipeline.PacketListener {
+    private final Logger logger;
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentMillis;
+    private final int bufferSize;
+    private final long started = System.currentTimeMillis();
+    private final Map<Long, Speaker> speakers = new ConcurrentHashMap<>();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public VoiceRecorder(Logger logger, Path baseDirectory,
+                         long maxSegmentBytes, long maxSegmentMillis, int bufferSize) throws IOException {
+        this.logger = logger;
+        this.directory = baseDirectory.resolve(new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(started)));
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.bufferSize = bufferSize;
+
+        Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * Gets the number of speakers that have been recorded in this session.
+     */
+    public int getSpeakers() {
+        return speakers.size();
+    }
+
+    public long getSegments() {
+        return segments.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void onUserPacket(long userId, OpusPacket packet) {
+        if (closed) return;
+
+        Speaker speaker = speakers.computeIfAbsent(userId, Speaker::new);
+        synchronized (speaker) {
+            try {
+                speaker.write(packet);
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                logger.log(Level.WARNING, "Problem recording voice of user " + userId, e);
+                speaker.close();
+            }
+        }
+    }
+
+    @Override
+    public void onUserClosed(long userId) {
+        // The speaker is kept, so a user who comes back continues with their next segment
+        Speaker speaker = speakers.get(userId);
+        if (speaker != null) {
+            synchronized (speaker) {
+                speaker.close();
+            }
+        }
+    }
+
+    /**
+     * Stops recording, closing (and forcing to disk) every open segment.
+     */
+    public void close() {
+        closed = true;
+
+        for (Long userId : speakers.keySet())
+            onUserClosed(userId);
+    }
+
+    private class Speaker {
+        private final long userId;
+        private OggOpusWriter writer;
+        private int segment = 0;
+
+        private Speaker(long userId) {
+            this.userId = userId;
+        }
+
+        private void write(OpusPacket packet) throws IOException {
+            if (closed) return;
+
+            if (writer != null && (writer.getBytesWritten() >= maxSegmentBytes
+                    || writer.getDurationMillis() >= maxSegmentMillis))
+                rotate();
+
+            if (writer == null) {
+                writer = new OggOpusWriter(
+                        directory.resolve(userId + "-" + segment + ".opus"),
+                        (int) (userId ^ (userId >>> 32)) + segment,
+                        bufferSize
+                );
+
+                segment ++;
+
+                segments.incrementAndGet();
+            }
+
+            writer.write(packet.getOpusAudio(), packet.getTimestamp());
+        }
+
+        private void rotate() throws IOException {
+            OggOpusWriter writer = this.writer;
+            this.writer = null;
+            writer.close();
+        }
+
+        private void close() {
+            if (writer == null) return;
+
+            try {
+                rotate();
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                logger.log(Level.WARNING, "Problem closing voice recording of user " + userId, e);
+            }
+        }
+    }
+}
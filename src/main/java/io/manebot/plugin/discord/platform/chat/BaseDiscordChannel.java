@@ -5,6 +5,7 @@ import io.manebot.chat.Community;
 import io.manebot.chat.TextFormat;
 import io.manebot.chat.ChatMessage;
 import io.manebot.platform.Platform;
+import io.manebot.plugin.discord.platform.CallbackExecutor;
 import io.manebot.plugin.discord.platform.DiscordPlatformConnection;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Message;
@@ -12,12 +13,17 @@ import net.dv8tion.jda.api.entities.MessageChannel;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public abstract class BaseDiscordChannel implements Chat {
     private final DiscordPlatformConnection connection;
     private final MessageChannel channel;
+    private volatile MessageCoalescer coalescer;
+    private volatile TypingIndicator typingIndicator;
 
     public BaseDiscordChannel(DiscordPlatformConnection connection, MessageChannel channel) {
         this.connection = connection;
@@ -55,27 +61,165 @@ public abstract class BaseDiscordChannel implements Chat {
 
     @Override
     public Collection<ChatMessage> sendMessage(Consumer<ChatMessage.Builder> consumer) {
+        return sendMessage(consumer, SendPriority.INTERACTIVE);
+    }
+
+    /**
+     * Sends a message to this channel, waiting for it to be sent.  A background message may be dropped while the
+     * channel is saturated, in which case this throws a CancellationException.
+     *
+     * Blocking sends are never coalesced, since waiting out the coalesce window would only delay the caller; text
+     * already waiting to be coalesced is sent first.
+     * @param consumer message builder.
+     * @param priority message priority.
+     * @return sent messages.
+     */
+    public Collection<ChatMessage> sendMessage(Consumer<ChatMessage.Builder> consumer, SendPriority priority) {
+        return Collections.singletonList(await(send(consumer, priority, false)));
+    }
+
+    /**
+     * Sends an interactive message to this channel without blocking.  Requests are queued as they are made, so several
+     * messages sent to the same channel are pipelined (and delivered in order) rather than each waiting for the last
+     * to complete.
+     * @param consumer message builder.
+     * @return future completed with the sent message.
+     */
+    public CompletableFuture<DiscordChatMessage> sendMessageAsync(Consumer<ChatMessage.Builder> consumer) {
+        return sendMessageAsync(consumer, SendPriority.INTERACTIVE);
+    }
+
+    /**
+     * Sends a message to this channel without blocking.  Plain text may be merged with other text sent to this channel
+     * within the coalesce window.
+     * @param consumer message builder.
+     * @param priority message priority.
+     * @return future completed with the sent message.
+     */
+    public CompletableFuture<DiscordChatMessage> sendMessageAsync(Consumer<ChatMessage.Builder> consumer,
+                                                                  SendPriority priority) {
+        return send(consumer, priority, true);
+    }
+
+    private CompletableFuture<DiscordChatMessage> send(Consumer<ChatMessage.Builder> consumer,
+                                                       SendPriority priority,
+                                                       boolean coalesce) {
         net.dv8tion.jda.api.MessageBuilder builder = new net.dv8tion.jda.api.MessageBuilder();
         consumer.accept(new DiscordChatMessage.MessageBuilder(getPlatformConnection().getSelf(), this, builder));
-        Message createdMessage = channel.sendMessage(builder.build()).complete();
+        Message message = builder.build();
 
-        return Collections.singletonList(new DiscordChatMessage(
+        // Plain text can be merged with other messages sent to this channel around the same time
+        MessageCoalescer coalescer = getCoalescer();
+        if (coalescer != null && coalesce && message.getEmbeds().isEmpty() && !message.isTTS())
+            return coalescer.submit(message.getContentRaw(), priority);
+
+        if (coalescer != null) {
+            // Send pending text first, so this message doesn't overtake it
+            return coalescer.sendAfterPending(() -> connection.getSendScheduler()
+                    .submit(getId(), priority, () -> channel.sendMessage(message))
+                    .thenApply(this::wrapSentMessage));
+        }
+
+        return connection.getSendScheduler()
+                .submit(getId(), priority, () -> channel.sendMessage(message))
+                .thenApply(this::wrapSentMessage);
+    }
+
+    /**
+     * Sends plain message content to this channel without blocking, bypassing coalescing.
+     * @param content message content.
+     * @param priority message priority.
+     * @return future completed with the sent message.
+     */
+    CompletableFuture<DiscordChatMessage> sendRawAsync(String content, SendPriority priority) {
+        return connection.getSendScheduler()
+                .submit(getId(), priority, () -> channel.sendMessage(content))
+                .thenApply(this::wrapSentMessage);
+    }
+
+    private DiscordChatMessage wrapSentMessage(Message createdMessage) {
+        TypingIndicator typingIndicator = this.typingIndicator;
+        if (typingIndicator != null) typingIndicator.onMessageSent();
+
+        DiscordChatMessage message = new DiscordChatMessage(
                 getPlatformConnection(),
                 new DiscordChatSender(getPlatformConnection().getSelf(), this),
                 createdMessage
-        ));
+        );
+
+        onMessage(message);
+
+        return message;
+    }
+
+    /**
+     * Called when a message is posted in this channel, by anyone (including the bot itself).
+     * @param message message posted.
+     */
+    public void onMessage(DiscordChatMessage message) {
+        MessageHistory history = connection.getMessageHistory().get(channel.getIdLong(), true);
+        if (history != null) history.add(message);
+    }
+
+    private MessageCoalescer getCoalescer() {
+        long window = connection.getCoalesceWindowMillis();
+        if (window <= 0) return null;
+
+        MessageCoalescer coalescer = this.coalescer;
+        if (coalescer == null) {
+            synchronized (this) {
+                coalescer = this.coalescer;
+                if (coalescer == null)
+                    this.coalescer = coalescer = new MessageCoalescer(this, connection.getScheduler(), window);
+            }
+        }
+
+        return coalescer;
+    }
+
+    /**
+     * Waits for a future from one of the asynchronous send methods, rethrowing its failure as-is.
+     * @throws IllegalStateException if called from a callback thread, where waiting could starve the callbacks that
+     *                               complete the future (as JDA's complete() does).
+     */
+    static <T> T await(CompletableFuture<T> future) {
+        if (CallbackExecutor.isCallbackThread())
+            throw new IllegalStateException("Preventing a blocking Discord call in a callback thread; " +
+                    "use the asynchronous methods instead");
+
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw ex;
+        }
     }
 
     @Override
     public Collection<ChatMessage> getLastMessages(int max) {
-        return channel.getHistory().retrievePast(max).complete().stream().map(message -> new DiscordChatMessage(
-                getPlatformConnection(),
-                new DiscordChatSender(
-                        getPlatformConnection().getPlatformUser(message.getAuthor()),
-                        this
-                ),
-                message
-        )).collect(Collectors.toList());
+        MessageHistory history = connection.getMessageHistory().get(channel.getIdLong(), false);
+        if (history != null) {
+            List<DiscordChatMessage> buffered = history.getLast(max);
+            if (buffered != null) return Collections.unmodifiableList(buffered);
+        }
+
+        // Deeper than the buffer goes; ask Discord, and keep what it returns for next time
+        List<DiscordChatMessage> retrieved = channel.getHistory().retrievePast(max).complete().stream()
+                .map(message -> new DiscordChatMessage(
+                        getPlatformConnection(),
+                        new DiscordChatSender(
+                                getPlatformConnection().getPlatformUser(message.getAuthor()),
+                                this
+                        ),
+                        message
+                )).collect(Collectors.toList());
+
+        history = connection.getMessageHistory().get(channel.getIdLong(), true);
+        if (history != null) history.seed(retrieved, retrieved.size() < max);
+
+        return Collections.unmodifiableList(retrieved);
     }
 
     @Override
@@ -85,13 +229,24 @@ public abstract class BaseDiscordChannel implements Chat {
 
     @Override
     public void setTyping(boolean typing) {
-        if (typing)
-            channel.sendTyping().complete();
+        TypingIndicator typingIndicator = this.typingIndicator;
+        if (typingIndicator == null) {
+            if (!typing) return;
+
+            synchronized (this) {
+                typingIndicator = this.typingIndicator;
+                if (typingIndicator == null)
+                    this.typingIndicator = typingIndicator = new TypingIndicator(channel, connection.getScheduler());
+            }
+        }
+
+        typingIndicator.setTyping(typing);
     }
 
     @Override
     public boolean isTyping() {
-        return false;
+        TypingIndicator typingIndicator = this.typingIndicator;
+        return typingIndicator != null && typingIndicator.isTyping();
     }
 
     @Override
@@ -14,14 +14,18 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.sql.Date;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class DiscordChatMessage extends AbstractChatMessage {
     private final DiscordPlatformConnection connection;
-    private final Message message;
+    private volatile Views views;
     private final DiscordChatSender sender;
 
     public DiscordChatMessage(DiscordPlatformConnection connection,
@@ -31,7 +35,7 @@ public class DiscordChatMessage extends AbstractChatMessage {
 
         this.sender = sender;
         this.connection = connection;
-        this.message = message;
+        this.views = new Views(message);
     }
 
     @Override
@@ -39,54 +43,141 @@ public class DiscordChatMessage extends AbstractChatMessage {
         return sender;
     }
 
+    public Message getDiscordMessage() {
+        return views.message;
+    }
+
+    /**
+     * Updates this message with its edited version.
+     * @param message edited message.
+     */
+    public void update(Message message) {
+        Message current = views.message;
+        if (message.getIdLong() != current.getIdLong())
+            throw new IllegalArgumentException("Message " + message.getId() + " is not " + current.getId());
+
+        // Views still being computed from the old message land in the old holder, never in this one
+        this.views = new Views(message);
+    }
+
     @Override
     public Collection<PlatformUser> getMentions() {
-        return message.getMentionedUsers()
-                .stream()
-                .map(connection::getPlatformUser)
-                .collect(Collectors.toList());
+        Views views = this.views;
+        Collection<PlatformUser> mentions = views.mentions;
+        if (mentions == null) {
+            List<net.dv8tion.jda.api.entities.User> users = views.message.getMentionedUsers();
+            if (users.isEmpty()) {
+                mentions = Collections.emptyList();
+            } else {
+                List<PlatformUser> platformUsers = new ArrayList<>(users.size());
+                for (net.dv8tion.jda.api.entities.User user : users)
+                    platformUsers.add(connection.getPlatformUser(user));
+
+                mentions = Collections.unmodifiableList(platformUsers);
+            }
+
+            views.mentions = mentions;
+        }
+
+        return mentions;
     }
 
     @Override
     public String getMessage() {
-        return message.getContentDisplay();
+        Views views = this.views;
+        String contentDisplay = views.contentDisplay;
+        if (contentDisplay == null)
+            views.contentDisplay = contentDisplay = views.message.getContentDisplay();
+
+        return contentDisplay;
     }
 
     @Override
     public String getRawMessage() {
-        return message.getContentRaw();
+        return views.message.getContentRaw();
     }
 
     @Override
     public Collection<io.manebot.chat.ChatEmbed> getEmbeds() {
-        return message.getEmbeds().stream().map(ChatEmbed::new).collect(Collectors.toList());
+        Views views = this.views;
+        Collection<io.manebot.chat.ChatEmbed> embeds = views.embeds;
+        if (embeds == null) {
+            List<MessageEmbed> messageEmbeds = views.message.getEmbeds();
+            if (messageEmbeds.isEmpty()) {
+                embeds = Collections.emptyList();
+            } else {
+                List<io.manebot.chat.ChatEmbed> chatEmbeds = new ArrayList<>(messageEmbeds.size());
+                for (MessageEmbed embed : messageEmbeds)
+                    chatEmbeds.add(new ChatEmbed(embed));
+
+                embeds = Collections.unmodifiableList(chatEmbeds);
+            }
+
+            views.embeds = embeds;
+        }
+
+        return embeds;
     }
 
     @Override
     public void delete() throws UnsupportedOperationException {
-        message.delete().complete();
+        BaseDiscordChannel.await(deleteAsync());
+    }
+
+    /**
+     * Deletes this message without blocking.
+     * @return future completed once the message is deleted.
+     */
+    public CompletableFuture<Void> deleteAsync() {
+        return views.message.delete().submit();
     }
 
     @Override
     public ChatMessage edit(Consumer<Builder> function) {
+        return BaseDiscordChannel.await(editAsync(function));
+    }
+
+    /**
+     * Edits this message without blocking.
+     * @param function message builder.
+     * @return future completed with the edited message.
+     */
+    public CompletableFuture<DiscordChatMessage> editAsync(Consumer<Builder> function) {
         net.dv8tion.jda.api.MessageBuilder builder = new net.dv8tion.jda.api.MessageBuilder();
         function.accept(new MessageBuilder(getSender().getPlatformUser(), getSender().getChat(), builder));
-        Message editedMessage = message.editMessage(builder.build()).complete();
-        return new DiscordChatMessage(connection, sender, editedMessage);
+        return views.message.editMessage(builder.build()).submit()
+                .thenApply(editedMessage -> new DiscordChatMessage(connection, sender, editedMessage));
     }
 
     @Override
     public boolean wasEdited() {
-        return message.isEdited();
+        return views.message.isEdited();
     }
 
     @Override
     public java.util.Date getEditedDate() {
-        return wasEdited() ? Date.from(message.getTimeEdited().toInstant()) : null;
+        Message message = views.message;
+        return message.isEdited() ? Date.from(message.getTimeEdited().toInstant()) : null;
+    }
+
+    /**
+     * A message, with views of it computed on first access.  An edit swaps in a new holder, so a view is only ever
+     * stored alongside the message it was computed from.
+     */
+    private static class Views {
+        private final Message message;
+        private volatile String contentDisplay;
+        private volatile Collection<PlatformUser> mentions;
+        private volatile Collection<io.manebot.chat.ChatEmbed> embeds;
+
+        private Views(Message message) {
+            this.message = message;
+        }
     }
 
     private static class ChatEmbed implements io.manebot.chat.ChatEmbed {
         private final MessageEmbed embed;
+        private volatile Collection<Field> fields;
 
         private ChatEmbed(MessageEmbed embed) {
             this.embed = embed;
@@ -109,9 +200,14 @@ public class DiscordChatMessage extends AbstractChatMessage {
 
         @Override
         public Collection<Field> getFields() {
-            return embed.getFields().stream()
-                    .map(field -> new Field(field.getName(), field.getValue(), field.isInline()))
-                    .collect(Collectors.toList());
+            Collection<Field> fields = this.fields;
+            if (fields == null) {
+                this.fields = fields = Collections.unmodifiableList(embed.getFields().stream()
+                        .map(field -> new Field(field.getName(), field.getValue(), field.isInline()))
+                        .collect(Collectors.toList()));
+            }
+
+            return fields;
         }
 
         @Override
@@ -8,10 +8,26 @@ import io.manebot.plugin.discord.platform.user.DiscordPlatformUser;
 import io.manebot.user.UserAssociation;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 
 public final class DiscordTextFormat implements TextFormat {
+    private static final int MAX_TABLE_STYLES = 10;
+
+    // Characters below 128 that must be escaped: anything that isn't a letter, digit or whitespace
+    private static final boolean[] ESCAPED_ASCII = new boolean[128];
+
+    // Prefix and suffix for each combination of styles, indexed by a bit mask of style ordinals
+    private static final String[][] STYLE_KEYS;
+
+    static {
+        for (char character = 0; character < ESCAPED_ASCII.length; character ++)
+            ESCAPED_ASCII[character] = !Character.isLetterOrDigit(character) && !Character.isWhitespace(character);
+
+        STYLE_KEYS = createStyleKeyTable();
+    }
+
     public static DiscordTextFormat INSTANCE = new DiscordTextFormat();
 
     @Override
@@ -40,22 +56,65 @@ public final class DiscordTextFormat implements TextFormat {
 
     @Override
     public String format(String string, EnumSet<TextStyle> styles) {
-        if (string.trim().length() <= 0) return string;
+        if (isBlank(string)) return string;
 
-        List<TextStyle> list = new ArrayList<>(styles);
+        String escaped = escape(string);
+        if (styles.isEmpty()) return escaped;
 
-        StringBuilder builder = new StringBuilder();
+        String[] keys = styleKeys(styles);
+        return new StringBuilder(keys[0].length() + escaped.length() + keys[1].length())
+                .append(keys[0])
+                .append(escaped)
+                .append(keys[1])
+                .toString();
+    }
 
-        for (int i = 0; i < list.size(); i ++)
-            builder.append(styleToKey(list.get(i)));
+    /**
+     * Gets the prefix and suffix wrapping text in a combination of styles.  Styles open in declaration order and close
+     * in reverse order.
+     */
+    private static String[] styleKeys(EnumSet<TextStyle> styles) {
+        int mask = 0;
+        for (TextStyle style : styles)
+            mask |= 1 << style.ordinal();
+
+        String[] keys = mask < STYLE_KEYS.length ? STYLE_KEYS[mask] : null;
+        return keys != null ? keys : createStyleKeys(styles);
+    }
 
-        builder.append(escape(string));
+    private static String[] createStyleKeys(Collection<TextStyle> styles) {
+        List<TextStyle> list = new ArrayList<>(styles);
+        StringBuilder prefix = new StringBuilder();
+        StringBuilder suffix = new StringBuilder();
 
+        for (int i = 0; i < list.size(); i ++)
+            prefix.append(styleToKey(list.get(i)));
 
         for (int i = list.size()-1; i >= 0; i --)
-            builder.append(styleToKey(list.get(i)));
+            suffix.append(styleToKey(list.get(i)));
 
-        return builder.toString();
+        return new String[] { prefix.toString(), suffix.toString() };
+    }
+
+    private static String[][] createStyleKeyTable() {
+        TextStyle[] values = TextStyle.values();
+        if (values.length > MAX_TABLE_STYLES) return new String[0][];
+
+        String[][] table = new String[1 << values.length][];
+        for (int mask = 0; mask < table.length; mask ++) {
+            EnumSet<TextStyle> styles = EnumSet.noneOf(TextStyle.class);
+            for (TextStyle style : values)
+                if ((mask & (1 << style.ordinal())) != 0)
+                    styles.add(style);
+
+            try {
+                table[mask] = createStyleKeys(styles);
+            } catch (UnsupportedOperationException ex) {
+                table[mask] = null; // left to fail when it is used
+            }
+        }
+
+        return table;
     }
 
     private static String styleToKey(TextStyle style) {
@@ -77,12 +136,38 @@ public final class DiscordTextFormat implements TextFormat {
         }
     }
 
+    private static boolean isBlank(String string) {
+        for (int i = 0; i < string.length(); i ++)
+            if (string.charAt(i) > ' ')
+                return false;
+
+        return true;
+    }
+
+    private static boolean shouldEscape(char character) {
+        if (character < ESCAPED_ASCII.length)
+            return ESCAPED_ASCII[character];
+
+        return !Character.isLetterOrDigit(character) && !Character.isWhitespace(character);
+    }
+
     @Override
     public String escape(String string) {
-        StringBuilder builder = new StringBuilder();
+        int length = string.length();
+
+        // Most text has nothing to escape; hand it back as-is
+        int first = 0;
+        while (first < length && !shouldEscape(string.charAt(first)))
+            first ++;
+
+        if (first == length) return string;
+
+        StringBuilder builder = new StringBuilder(length + Math.max(16, (length - first) / 4));
+        builder.append(string, 0, first);
 
-        for (char character : string.toCharArray()) {
-            if (!Character.isLetterOrDigit(character) && !Character.isWhitespace(character))
+        for (int i = first; i < length; i ++) {
+            char character = string.charAt(i);
+            if (shouldEscape(character))
                 builder.append('\\');
 
             builder.append(character);
@@ -0,0 +1,193 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import net.dv8tion.jda.api.entities.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces plain-content messages sent to one channel within a short window.  When the window closes, the pending
+ * messages are packed, in order and separated by line breaks, into as few messages as Discord's length limit allows.
+ * Each sender's future completes with the message that holds its text.  Text too long for one message is split on
+ * line boundaries, and its future completes with the message holding the last part.
+ *
+ * Flushed batches are sent one after another, and messages that can't be coalesced (embeds, TTS) are queued behind
+ * them with sendAfterPending(), so nothing sent to the channel overtakes text that was sent before it.
+ */
+class MessageCoalescer {
+    private final BaseDiscordChannel channel;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private ScheduledFuture<?> flushTask;
+    private CompletableFuture<Void> lastFlush = CompletableFuture.completedFuture(null);
+
+    MessageCoalescer(BaseDiscordChannel channel, ScheduledExecutorService scheduler, long windowMillis) {
+        this.channel = channel;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+    }
+
+    CompletableFuture<DiscordChatMessage> submit(String content, SendPriority priority) {
+        Pending message = new Pending(content, priority);
+
+        synchronized (lock) {
+            pending.add(message);
+            if (flushTask == null)
+                flushTask = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return message.future;
+    }
+
+    /**
+     * Flushes the pending messages, then sends a message that can't be coalesced once they have been sent.
+     * @param send starts sending the message.
+     * @param <T> result type.
+     * @return future completed with the result of the send.
+     */
+    <T> CompletableFuture<T> sendAfterPending(Supplier<CompletableFuture<T>> send) {
+        synchronized (lock) {
+            flushLocked();
+
+            CompletableFuture<T> result = lastFlush.thenCompose(previous -> send.get());
+            lastFlush = result.handle((sent, throwable) -> null);
+            return result;
+        }
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            flushLocked();
+        }
+    }
+
+    private void flushLocked() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+
+        if (pending.isEmpty()) return;
+
+        List<Pending> batch = pending;
+        pending = new ArrayList<>();
+
+        // Each batch starts sending once the one before it has been sent
+        lastFlush = lastFlush.thenCompose(previous -> sendBatch(batch));
+    }
+
+    private CompletableFuture<Void> sendBatch(List<Pending> batch) {
+        List<CompletableFuture<?>> sends = new ArrayList<>();
+
+        try {
+            pack(batch, sends);
+        } catch (Throwable e) {
+            for (Pending message : batch)
+                message.future.completeExceptionally(e);
+        }
+
+        return CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).handle((result, throwable) -> null);
+    }
+
+    private void pack(List<Pending> batch, List<CompletableFuture<?>> sends) {
+        StringBuilder builder = new StringBuilder(Message.MAX_CONTENT_LENGTH);
+        List<Pending> completing = new ArrayList<>();
+        SendPriority priority = SendPriority.BACKGROUND;
+
+        for (Pending message : batch) {
+            List<String> parts = split(message.content);
+
+            for (int i = 0; i < parts.size(); i ++) {
+                String part = parts.get(i);
+                int separator = builder.length() > 0 ? 1 : 0;
+
+                if (builder.length() + separator + part.length() > Message.MAX_CONTENT_LENGTH) {
+                    sends.add(send(builder.toString(), completing, priority));
+                    builder.setLength(0);
+                    completing = new ArrayList<>();
+                    priority = SendPriority.BACKGROUND;
+                    separator = 0;
+                }
+
+                // A merged message is as urgent as the most urgent text in it
+                if (message.priority == SendPriority.INTERACTIVE)
+                    priority = SendPriority.INTERACTIVE;
+
+                if (separator > 0) builder.append('\n');
+                builder.append(part);
+            }
+
+            completing.add(message);
+        }
+
+        if (builder.length() > 0 || !completing.isEmpty())
+            sends.add(send(builder.toString(), completing, priority));
+    }
+
+    private CompletableFuture<?> send(String content, List<Pending> completing, SendPriority priority) {
+        if (content.isEmpty()) {
+            // Only reachable if a sender's text was entirely empty; nothing to attach them to
+            for (Pending message : completing)
+                message.future.completeExceptionally(new IllegalArgumentException("Message is empty"));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return channel.sendRawAsync(content, priority).whenComplete((sent, throwable) -> {
+            for (Pending message : completing) {
+                if (throwable != null)
+                    message.future.completeExceptionally(throwable);
+                else
+                    message.future.complete(sent);
+            }
+        });
+    }
+
+    /**
+     * Splits text into parts that fit in one message, breaking on line boundaries where possible.
+     */
+    private static List<String> split(String content) {
+        List<String> parts = new ArrayList<>(1);
+        if (content.length() <= Message.MAX_CONTENT_LENGTH) {
+            parts.add(content);
+            return parts;
+        }
+
+        int start = 0;
+        while (content.length() - start > Message.MAX_CONTENT_LENGTH) {
+            int end = content.lastIndexOf('\n', start + Message.MAX_CONTENT_LENGTH);
+            if (end <= start) {
+                // A single line longer than a message; break it where it overflows
+                end = start + Message.MAX_CONTENT_LENGTH;
+                parts.add(content.substring(start, end));
+                start = end;
+            } else {
+                parts.add(content.substring(start, end));
+                start = end + 1;
+            }
+        }
+
+        if (start < content.length())
+            parts.add(content.substring(start));
+
+        return parts;
+    }
+
+    private static class Pending {
+        private final String content;
+        private final SendPriority priority;
+        private final CompletableFuture<DiscordChatMessage> future = new CompletableFuture<>();
+
+        private Pending(String content, SendPriority priority) {
+            this.content = content;
+            this.priority = priority;
+        }
+    }
+}
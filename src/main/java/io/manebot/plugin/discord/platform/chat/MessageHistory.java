@@ -0,0 +1,165 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import net.dv8tion.jda.api.entities.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Bounded ring buffer of the most recent messages in one channel, oldest first.  The buffer is contiguous: it holds
+ * every message in the channel since the oldest message it holds, so it can answer "last N messages" queries as long
+ * as it holds at least N messages (or holds the channel's entire history).
+ */
+public class MessageHistory {
+    private final DiscordChatMessage[] messages;
+    private int head = 0; // index of the oldest message
+    private int size = 0;
+    private boolean complete = false; // true if the buffer holds the channel's entire history
+
+    public MessageHistory(int capacity) {
+        this.messages = new DiscordChatMessage[capacity];
+    }
+
+    private int indexOf(int position) {
+        return (head + position) % messages.length;
+    }
+
+    private int find(long messageId) {
+        // Recent messages are the likeliest to be looked up, so search from the newest
+        for (int position = size - 1; position >= 0; position --)
+            if (messages[indexOf(position)].getDiscordMessage().getIdLong() == messageId)
+                return position;
+
+        return -1;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a new message to the history in message ID order, evicting the oldest message if the buffer is full.
+     * Messages usually arrive in order, but sends and gateway events can race, so a late message is put in its place.
+     * A message older than every buffered one is dropped unless the buffer holds the channel's entire history, as
+     * the messages between it and the oldest buffered one may be missing.
+     */
+    public synchronized void add(DiscordChatMessage message) {
+        long messageId = message.getDiscordMessage().getIdLong();
+
+        // Search from the newest, where new messages almost always go
+        int position = size;
+        while (position > 0) {
+            long id = messages[indexOf(position - 1)].getDiscordMessage().getIdLong();
+            if (id == messageId) return;
+            if (id < messageId) break;
+            position --;
+        }
+
+        if (position == 0 && size > 0 && !complete) return;
+
+        if (size == messages.length) {
+            if (position == 0) return; // older than everything in a full buffer
+
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size --;
+            position --;
+            complete = false;
+        }
+
+        for (int i = size; i > position; i --)
+            messages[indexOf(i)] = messages[indexOf(i - 1)];
+
+        messages[indexOf(position)] = message;
+        size ++;
+    }
+
+    /**
+     * Replaces a buffered message with its edited version.
+     * @param message edited message.
+     * @return true if the message was buffered.
+     */
+    public synchronized boolean update(Message message) {
+        int position = find(message.getIdLong());
+        if (position < 0) return false;
+
+        messages[indexOf(position)].update(message);
+        return true;
+    }
+
+    /**
+     * Removes deleted messages from the history.
+     */
+    public synchronized void remove(Collection<Long> messageIds) {
+        int kept = 0;
+
+        for (int position = 0; position < size; position ++) {
+            DiscordChatMessage message = messages[indexOf(position)];
+            if (!messageIds.contains(message.getDiscordMessage().getIdLong()))
+                messages[indexOf(kept ++)] = message;
+        }
+
+        for (int position = kept; position < size; position ++)
+            messages[indexOf(position)] = null;
+
+        size = kept;
+    }
+
+    /**
+     * Gets the last messages in the channel, newest first.
+     * @param max maximum number of messages to get.
+     * @return last messages, or null if the buffer doesn't hold enough history to answer.
+     */
+    public synchronized List<DiscordChatMessage> getLast(int max) {
+        if (size < max && !complete) return null;
+
+        int count = Math.min(max, size);
+        List<DiscordChatMessage> last = new ArrayList<>(count);
+        for (int position = size - 1; position >= size - count; position --)
+            last.add(messages[indexOf(position)]);
+
+        return last;
+    }
+
+    /**
+     * Fills the history from messages retrieved from Discord, keeping any buffered messages newer than them.
+     * @param retrieved retrieved messages, newest first.
+     * @param complete true if the retrieved messages are the channel's entire history.
+     */
+    public synchronized void seed(List<DiscordChatMessage> retrieved, boolean complete) {
+        if (retrieved.isEmpty()) {
+            this.complete = complete && size == 0;
+            return;
+        }
+
+        long newestRetrieved = retrieved.get(0).getDiscordMessage().getIdLong();
+        List<DiscordChatMessage> newer = new ArrayList<>();
+        for (int position = 0; position < size; position ++) {
+            DiscordChatMessage message = messages[indexOf(position)];
+            if (message.getDiscordMessage().getIdLong() > newestRetrieved)
+                newer.add(message);
+        }
+
+        int total = retrieved.size() + newer.size();
+        int skip = Math.max(0, total - messages.length);
+
+        for (int position = 0; position < size; position ++)
+            messages[indexOf(position)] = null;
+
+        head = 0;
+        size = 0;
+
+        for (int i = retrieved.size() - 1; i >= 0; i --) {
+            if (skip > 0) { skip --; continue; }
+            messages[size ++] = retrieved.get(i);
+        }
+
+        for (DiscordChatMessage message : newer) {
+            if (skip > 0) { skip --; continue; }
+            messages[size ++] = message;
+        }
+
+        this.complete = complete && total <= messages.length;
+    }
+}
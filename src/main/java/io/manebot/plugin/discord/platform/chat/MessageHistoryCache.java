@@ -0,0 +1,49 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the message history of recently active channels.  Total memory is capped by bounding both the messages kept
+ * per channel and the number of channels; the least recently used channel's history is evicted first.
+ */
+public class MessageHistoryCache {
+    private final int messagesPerChannel;
+    private final Map<Long, MessageHistory> histories;
+
+    public MessageHistoryCache(int messagesPerChannel, int maxMessages) {
+        this.messagesPerChannel = messagesPerChannel;
+
+        int maxChannels = messagesPerChannel <= 0 ? 0 : Math.max(1, maxMessages / messagesPerChannel);
+        this.histories = new LinkedHashMap<Long, MessageHistory>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, MessageHistory> eldest) {
+                return size() > maxChannels;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return messagesPerChannel > 0;
+    }
+
+    /**
+     * Gets a channel's history.
+     * @param channelId channel ID.
+     * @param create true if a history should be created for the channel if it has none.
+     * @return channel history, or null if there is none and create is false (or history is disabled).
+     */
+    public synchronized MessageHistory get(long channelId, boolean create) {
+        if (!isEnabled()) return null;
+
+        MessageHistory history = histories.get(channelId);
+        if (history == null && create)
+            histories.put(channelId, history = new MessageHistory(messagesPerChannel));
+
+        return history;
+    }
+
+    public synchronized int getChannels() {
+        return histories.size();
+    }
+}
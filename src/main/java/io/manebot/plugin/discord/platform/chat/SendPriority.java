@@ -0,0 +1,17 @@
+package io.manebot.plugin.discord.platform.chat;
+
+/**
+ * Priority of an outgoing message in the SendScheduler.
+ */
+public enum SendPriority {
+    /**
+     * A reply to someone interacting with the bot; sent before any background traffic on the same route.
+     */
+    INTERACTIVE,
+
+    /**
+     * Bulk or unsolicited output (announcements, long lists).  May be dropped if it goes stale while a route is
+     * saturated.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,209 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import net.dv8tion.jda.api.requests.RestAction;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Schedules outgoing messages per route (channel) ahead of JDA's requester.  Each route's rate limit bucket is
+ * modelled locally; while a bucket has room, messages are submitted to JDA immediately, and when it is saturated they
+ * wait here, where interactive replies are sent before background traffic.  Background messages that go stale while
+ * waiting, or overflow the background queue, are dropped (their futures complete with a CancellationException).
+ *
+ * Requests on a route are handed to JDA in the order they were scheduled (within each priority), and routes that have
+ * gone idle are removed periodically, so channels that are no longer written to don't keep a route around.
+ */
+public class SendScheduler {
+    private final ScheduledExecutorService scheduler;
+    private final int bucketSize;
+    private final long bucketPeriodMillis;
+    private final int maxBackgroundQueue;
+    private final long staleMillis;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    public SendScheduler(ScheduledExecutorService scheduler,
+                         int bucketSize,
+                         long bucketPeriodMillis,
+                         int maxBackgroundQueue,
+                         long staleMillis) {
+        this.scheduler = scheduler;
+        this.bucketSize = bucketSize;
+        this.bucketPeriodMillis = bucketPeriodMillis;
+        this.maxBackgroundQueue = maxBackgroundQueue;
+        this.staleMillis = staleMillis;
+
+        // A route is idle once its bucket has fully drained, so sweeping every dozen periods is plenty
+        long sweepMillis = Math.max(1000L, bucketPeriodMillis * 12L);
+        scheduler.scheduleWithFixedDelay(this::evictIdleRoutes, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules a request on a route.
+     * @param routeId route (channel) ID.
+     * @param priority request priority.
+     * @param action supplier of the request, called when it is sent.
+     * @param <T> request result type.
+     * @return future completed with the request's result.
+     */
+    public <T> CompletableFuture<T> submit(String routeId, SendPriority priority, Supplier<RestAction<T>> action) {
+        Item<T> item = new Item<>(action);
+
+        Route route;
+        do {
+            route = routes.computeIfAbsent(routeId, Route::new);
+        } while (!route.enqueue(priority, item)); // lost a race with eviction; the next lookup creates a fresh route
+
+        route.dispatch();
+
+        return item.future;
+    }
+
+    private void evictIdleRoutes() {
+        long now = System.currentTimeMillis();
+        for (Route route : routes.values()) {
+            if (route.retireIfIdle(now))
+                routes.remove(route.getId(), route);
+        }
+    }
+
+    /**
+     * Gets the routes which have had traffic, for reporting.
+     */
+    public Collection<Route> getRoutes() {
+        return Collections.unmodifiableCollection(routes.values());
+    }
+
+    public class Route {
+        private final String id;
+        private final Deque<Item<?>> interactive = new ArrayDeque<>();
+        private final Deque<Item<?>> background = new ArrayDeque<>();
+        private final Deque<Long> sendTimes = new ArrayDeque<>(bucketSize);
+
+        private boolean dispatchScheduled = false;
+        private boolean retired = false;
+        private long sent = 0L;
+        private long dropped = 0L;
+        private long totalWaitNanos = 0L;
+
+        private Route(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public synchronized int getQueueDepth() {
+            return interactive.size() + background.size();
+        }
+
+        public synchronized long getSent() {
+            return sent;
+        }
+
+        public synchronized long getDropped() {
+            return dropped;
+        }
+
+        public synchronized double getAverageWaitMillis() {
+            return sent <= 0 ? 0D : (totalWaitNanos / (double) sent) / 1_000_000D;
+        }
+
+        /**
+         * Retires this route if nothing is queued and its bucket has drained; a retired route accepts no more items.
+         */
+        private synchronized boolean retireIfIdle(long now) {
+            if (retired) return true;
+            if (getQueueDepth() > 0 || dispatchScheduled) return false;
+            if (!sendTimes.isEmpty() && now - sendTimes.peekLast() < bucketPeriodMillis) return false;
+
+            retired = true;
+            return true;
+        }
+
+        private synchronized boolean enqueue(SendPriority priority, Item<?> item) {
+            if (retired) return false;
+
+            if (priority == SendPriority.INTERACTIVE) {
+                interactive.addLast(item);
+            } else {
+                background.addLast(item);
+                while (background.size() > maxBackgroundQueue)
+                    drop(background.pollFirst());
+            }
+
+            return true;
+        }
+
+        private void drop(Item<?> item) {
+            dropped ++;
+            item.future.completeExceptionally(
+                    new CancellationException("Dropped background message on saturated route " + id)
+            );
+        }
+
+        private void dispatch() {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                while (!sendTimes.isEmpty() && now - sendTimes.peekFirst() >= bucketPeriodMillis)
+                    sendTimes.pollFirst();
+
+                while (sendTimes.size() < bucketSize) {
+                    Item<?> item = interactive.pollFirst();
+                    if (item == null) item = background.pollFirst();
+                    if (item == null) break;
+
+                    sendTimes.addLast(now);
+                    sent ++;
+                    totalWaitNanos += System.nanoTime() - item.queuedNanos;
+
+                    // Submitted under the lock, so concurrent dispatches hand items to JDA in queue order
+                    item.send();
+                }
+
+                // Anything left waiting is behind a saturated bucket; let go of background items that went stale
+                long staleBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(staleMillis);
+                while (!background.isEmpty() && background.peekFirst().queuedNanos < staleBefore)
+                    drop(background.pollFirst());
+
+                if (getQueueDepth() > 0 && !dispatchScheduled) {
+                    dispatchScheduled = true;
+                    long delay = Math.max(1L, sendTimes.peekFirst() + bucketPeriodMillis - now);
+                    scheduler.schedule(() -> {
+                        synchronized (Route.this) {
+                            dispatchScheduled = false;
+                        }
+
+                        dispatch();
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private static class Item<T> {
+        private final Supplier<RestAction<T>> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long queuedNanos = System.nanoTime();
+
+        private Item(Supplier<RestAction<T>> action) {
+            this.action = action;
+        }
+
+        private void send() {
+            try {
+                action.get().submit().whenComplete((result, throwable) -> {
+                    if (throwable != null)
+                        future.completeExceptionally(throwable);
+                    else
+                        future.complete(result);
+                });
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.manebot.plugin.discord.platform.chat;
+
+import net.dv8tion.jda.api.entities.MessageChannel;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the typing indicator of one channel.  Discord shows the indicator for about 10 seconds after it is sent, or
+ * until the bot sends a message; requests inside that window are skipped.  While typing is on, the indicator is
+ * renewed in the background shortly before it would expire, until the bot sends a message or up to a maximum
+ * duration.
+ */
+class TypingIndicator {
+    private static final long DISPLAY_MILLIS = 10000L;
+    private static final long RENEW_MILLIS = 8000L;
+    private static final long MAX_TYPING_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final MessageChannel channel;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long lastSentMillis = 0L;
+    private long typingSinceMillis;
+    private ScheduledFuture<?> renewal;
+
+    TypingIndicator(MessageChannel channel, ScheduledExecutorService scheduler) {
+        this.channel = channel;
+        this.scheduler = scheduler;
+    }
+
+    synchronized void setTyping(boolean typing) {
+        if (typing) {
+            if (renewal == null) {
+                typingSinceMillis = System.currentTimeMillis();
+                renewal = scheduler.scheduleWithFixedDelay(this::renew, RENEW_MILLIS, RENEW_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            }
+
+            if (System.currentTimeMillis() - lastSentMillis >= RENEW_MILLIS)
+                send();
+        } else if (renewal != null) {
+            renewal.cancel(false);
+            renewal = null;
+        }
+    }
+
+    /**
+     * Finds if the typing indicator is currently shown in the channel.
+     */
+    boolean isTyping() {
+        return System.currentTimeMillis() - lastSentMillis < DISPLAY_MILLIS;
+    }
+
+    /**
+     * Called when the bot sends a message to the channel, which clears the typing indicator.  Typing stops with it;
+     * the indicator isn't renewed after the reply is posted.
+     */
+    synchronized void onMessageSent() {
+        setTyping(false);
+        lastSentMillis = 0L;
+    }
+
+    private synchronized void renew() {
+        if (renewal == null) return;
+
+        if (System.currentTimeMillis() - typingSinceMillis >= MAX_TYPING_MILLIS) {
+            setTyping(false);
+            return;
+        }
+
+        if (System.currentTimeMillis() - lastSentMillis >= RENEW_MILLIS)
+            send();
+    }
+
+    private void send() {
+        lastSentMillis = System.currentTimeMillis();
+        channel.sendTyping().submit().exceptionally(throwable -> {
+            lastSentMillis = 0L;
+            return null;
+        });
+    }
+}
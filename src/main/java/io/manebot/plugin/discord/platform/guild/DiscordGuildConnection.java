@@ -14,15 +14,22 @@ import io.manebot.plugin.audio.channel.AudioChannelRegistrant;
 import io.manebot.plugin.audio.mixer.Mixer;
 import io.manebot.plugin.audio.opus.OpusParameters;
 import io.manebot.plugin.audio.player.AudioPlayer;
+import io.manebot.plugin.discord.platform.audio.AdaptiveOpusParameters;
 import io.manebot.plugin.discord.platform.audio.DiscordAudioChannel;
 import io.manebot.plugin.discord.platform.audio.DiscordMixerSink;
+import io.manebot.plugin.discord.platform.audio.OpusBroadcast;
+import io.manebot.plugin.discord.platform.audio.SpeakingIndex;
+import io.manebot.plugin.discord.platform.audio.VoiceReceivePipeline;
+import io.manebot.plugin.discord.platform.audio.VoiceRecorder;
 import io.manebot.plugin.discord.database.model.DiscordGuild;
+import io.manebot.plugin.discord.event.DiscordUserSpeakingEvent;
+import io.manebot.plugin.discord.platform.CallbackExecutor;
 import io.manebot.plugin.discord.platform.DiscordPlatformConnection;
+import io.manebot.plugin.discord.platform.TimerWheel;
 
 import io.manebot.plugin.discord.platform.user.DiscordPlatformUser;
 import io.manebot.user.User;
 import io.manebot.user.UserAssociation;
-import io.manebot.virtual.Virtual;
 import net.dv8tion.jda.api.audio.AudioReceiveHandler;
 import net.dv8tion.jda.api.audio.CombinedAudio;
 import net.dv8tion.jda.api.audio.OpusPacket;
@@ -33,11 +40,20 @@ import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.ISnowflake;
 import net.dv8tion.jda.api.entities.MessageChannel;
 import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.VoiceChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
 import net.dv8tion.jda.api.managers.AudioManager;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import net.dv8tion.jda.api.sharding.ShardManager;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 import java.util.stream.Collectors;
 
@@ -45,6 +61,11 @@ import java.util.stream.Collectors;
  * Represents a connection to a specific authorized Guild in Discord.
  */
 public class DiscordGuildConnection implements AudioChannelRegistrant, Community {
+    /**
+     * Longest an encoder parameter change waits for a pause in the audio before it is applied anyway.
+     */
+    private static final long RETUNE_DEADLINE_MILLIS = 30000L;
+
     private final Plugin plugin;
     private final DiscordGuild guildModel;
     private final Guild guild;
@@ -56,10 +77,24 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
     private final Object registerLock = new Object();
     private boolean registered = false;
 
-    private Sleeper sleeper; // used to time the channel going to sleep
+    private TimerWheel.Timeout idleTimeout; // used to time the channel going to sleep
     private Mixer mixer;
-    private DiscordMixerSink mixerSink;
+    private volatile DiscordMixerSink mixerSink; // written under audioLock, also read under broadcastLock
     private DiscordAudioChannel channel;
+    private final VoiceReceivePipeline receivePipeline;
+    private final SpeakingIndex speakingIndex;
+    private final Object speakingLock = new Object();
+    private CompletableFuture<?> speakingEvents = CompletableFuture.completedFuture(null); // last event fired
+    private final AdaptiveOpusParameters opusParameters;
+    private int sinkBitrate, sinkComplexity; // what the current sink was built with
+    private long retuneSince = 0L;
+    private final Object recorderLock = new Object();
+    private volatile VoiceRecorder recorder;
+
+    private final Object audioLock = new Object();
+    private final Object broadcastLock = new Object();
+    private OpusBroadcast broadcast; // frames this guild publishes to others
+    private OpusBroadcast.Subscriber subscription; // frames this guild relays from another guild
 
     public DiscordGuildConnection(Plugin plugin,
                                   DiscordGuild guildModel,
@@ -74,6 +109,126 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
 
         this.audio = audio;
         this.audioConnection = audioConnection;
+
+        this.receivePipeline = new VoiceReceivePipeline(
+                platformConnection.getReceiveExecutor(),
+                plugin.getLogger(),
+                Integer.parseInt(plugin.getProperty("receiveQueueSize", "25"))
+        );
+
+        this.opusParameters = new AdaptiveOpusParameters(
+                OpusParameters.fromPluginConfiguration(plugin),
+                Integer.parseInt(plugin.getProperty("audioMaxBitrate", "128000"))
+        );
+
+        this.speakingIndex = new SpeakingIndex(
+                platformConnection.getScheduler(),
+                plugin.getLogger(),
+                Long.parseLong(plugin.getProperty("speakingDebounceMillis", "1000")),
+                this::onSpeaking
+        );
+    }
+
+    /**
+     * Gets the index of who is speaking in this guild's voice connection.
+     */
+    public SpeakingIndex getSpeakingIndex() {
+        return speakingIndex;
+    }
+
+    private void onSpeaking(long userId, boolean speaking, long durationMillis) {
+        ShardManager shardManager = connection.getShardManager();
+        net.dv8tion.jda.api.entities.User user = shardManager.getUserById(userId);
+
+        synchronized (speakingLock) {
+            if (user != null && speakingEvents.isDone()) {
+                fireSpeaking(user, speaking, durationMillis);
+                return;
+            }
+
+            // Users outside the member cache are retrieved from Discord; events are chained so they still fire in order
+            speakingEvents = speakingEvents
+                    .thenCompose(ignored -> user != null ?
+                            CompletableFuture.completedFuture(user) :
+                            shardManager.retrieveUserById(userId).submit())
+                    .thenAccept(found -> fireSpeaking(found, speaking, durationMillis))
+                    .exceptionally(throwable -> {
+                        plugin.getLogger().log(Level.FINE, "Problem retrieving speaking Discord user " + userId,
+                                throwable);
+                        return null;
+                    });
+        }
+    }
+
+    private void fireSpeaking(net.dv8tion.jda.api.entities.User user, boolean speaking, long durationMillis) {
+        plugin.getBot().getEventDispatcher().executeAsync(new DiscordUserSpeakingEvent(
+                this,
+                this,
+                connection.getPlatformUser(user),
+                speaking,
+                durationMillis
+        ));
+    }
+
+    /**
+     * Gets the pipeline that decodes voice received in this guild.  Add a listener to it to receive per-user audio.
+     */
+    public VoiceReceivePipeline getReceivePipeline() {
+        return receivePipeline;
+    }
+
+    /**
+     * Joins a voice channel and starts recording the voice received in it.
+     * @param voiceChannel voice channel in this guild to record.
+     * @return the new recorder.
+     * @throws IllegalStateException if this guild is already being recorded, or audio is not registered for it.
+     */
+    public VoiceRecorder startRecording(VoiceChannel voiceChannel) throws IOException {
+        if (voiceChannel.getGuild().getIdLong() != guild.getIdLong())
+            throw new IllegalArgumentException("voice channel is not in guild " + getId());
+
+        synchronized (recorderLock) {
+            if (recorder != null)
+                throw new IllegalStateException("guild " + getId() + " is already being recorded");
+
+            allocateAudio();
+
+            VoiceRecorder recorder = new VoiceRecorder(
+                    plugin.getLogger(),
+                    Paths.get(plugin.getProperty("recordingDirectory", "recordings")).resolve(getId()),
+                    Long.parseLong(plugin.getProperty("recordingSegmentMegabytes", "256")) * 1024L * 1024L,
+                    TimeUnit.MINUTES.toMillis(Long.parseLong(plugin.getProperty("recordingSegmentMinutes", "60"))),
+                    256 * 1024
+            );
+
+            receivePipeline.addPacketListener(recorder);
+            this.recorder = recorder;
+
+            guild.getAudioManager().openAudioConnection(voiceChannel);
+
+            return recorder;
+        }
+    }
+
+    /**
+     * Stops recording the voice received in this guild, closing every open file.
+     * @return the recorder that was stopped, or null if the guild wasn't being recorded.
+     */
+    public VoiceRecorder stopRecording() {
+        synchronized (recorderLock) {
+            VoiceRecorder recorder = this.recorder;
+            if (recorder == null) return null;
+
+            receivePipeline.removePacketListener(recorder);
+            recorder.close();
+            this.recorder = null;
+
+            return recorder;
+        }
+    }
+
+    public VoiceRecorder getRecorder() {
+        return recorder;
     }
 
     public DiscordGuild getModel() {
@@ -91,15 +246,60 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
                 .anyMatch(this::isMember);
     }
 
+    /**
+     * Finds if a user is a member of this guild.  When the member cache doesn't hold every member and the user isn't
+     * cached, the member is retrieved from Discord, which can't be waited for on a callback thread; use
+     * isMemberAsync() there.
+     * @throws IllegalStateException if the member has to be retrieved and this is a callback thread.
+     */
     @Override
     public boolean isMember(PlatformUser user) {
-        if (user instanceof DiscordPlatformUser) {
-            return guild.isMember(((DiscordPlatformUser) user).getUser());
-        } else {
-            return false;
+        if (!(user instanceof DiscordPlatformUser)) return false;
+
+        net.dv8tion.jda.api.entities.User discordUser = ((DiscordPlatformUser) user).getUser();
+        if (guild.isMember(discordUser)) return true;
+        if (connection.getMemberCacheProfile().isFull()) return false;
+
+        if (CallbackExecutor.isCallbackThread())
+            throw new IllegalStateException("Preventing a blocking Discord call in a callback thread; " +
+                    "use isMemberAsync() instead");
+
+        // The member may simply not be cached; ask Discord
+        try {
+            return guild.retrieveMember(discordUser).complete() != null;
+        } catch (ErrorResponseException ex) {
+            if (ex.getErrorResponse() == ErrorResponse.UNKNOWN_MEMBER) return false;
+            throw ex;
         }
     }
 
+    /**
+     * Finds if a user is a member of this guild without blocking, retrieving the member from Discord if it isn't
+     * cached.
+     * @param user user to look up.
+     * @return future completed with true if the user is a member.
+     */
+    public CompletableFuture<Boolean> isMemberAsync(PlatformUser user) {
+        if (!(user instanceof DiscordPlatformUser)) return CompletableFuture.completedFuture(false);
+
+        net.dv8tion.jda.api.entities.User discordUser = ((DiscordPlatformUser) user).getUser();
+        if (guild.isMember(discordUser)) return CompletableFuture.completedFuture(true);
+        if (connection.getMemberCacheProfile().isFull()) return CompletableFuture.completedFuture(false);
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        guild.retrieveMember(discordUser).submit().whenComplete((member, throwable) -> {
+            if (throwable == null)
+                result.complete(member != null);
+            else if (throwable instanceof ErrorResponseException &&
+                    ((ErrorResponseException) throwable).getErrorResponse() == ErrorResponse.UNKNOWN_MEMBER)
+                result.complete(false);
+            else
+                result.completeExceptionally(throwable);
+        });
+
+        return result;
+    }
+
     @Override
     public Collection<String> getChatIds() {
         return guild.getChannels().stream()
@@ -115,11 +315,20 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Gets the IDs of this guild's cached members.  Unless the member cache profile caches every member, this is only
+     * part of the guild (members in voice, and whoever else the profile keeps); use isMember() to look up a specific
+     * user.
+     */
     @Override
     public Collection<String> getPlatformUserIds() {
         return guild.getMembers().stream().map(member -> member.getUser().getId()).collect(Collectors.toList());
     }
 
+    /**
+     * Gets this guild's cached members.  Unless the member cache profile caches every member, this is only part of the
+     * guild; see getPlatformUserIds().
+     */
     @Override
     public Collection<PlatformUser> getPlatformUsers() {
         return guild.getMembers().stream()
@@ -170,6 +379,22 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
     }
 
     public void unregisterAudio() {
+        unsubscribe();
+
+        OpusBroadcast closing;
+        synchronized (broadcastLock) {
+            closing = broadcast;
+            broadcast = null;
+        }
+
+        // Outside the lock: subscribed guilds take their own broadcast lock to hand their voice connection back
+        if (closing != null) closing.close();
+
+        stopRecording();
+        releaseAudio();
+
+        if (idleTimeout != null) idleTimeout.cancel();
+
         // Deconstruct audio system
         if (channel != null) {
             channel.disconnect();
@@ -185,6 +410,10 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
         }
     }
 
+    /**
+     * Registers this guild's mixer and audio channel.  The Opus sink and the voice handlers are not created here;
+     * see allocateAudio().
+     */
     public void registerAudio() throws PluginException {
         plugin.getLogger().fine("Registering audio mixer for guild \"" + guild.getName()
                 + "\" [" + getId() + "] ...");
@@ -192,29 +421,52 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
         // Deconstruct audio system
         unregisterAudio();
 
-        // Create mixer around the sink and audio channel around the mixer
+        // Create mixer, and audio channel around the mixer
         if (audio != null) {
             mixer = audioConnection.registerMixer(audio.createMixer(getId(), consumer -> {
                 consumer.setFormat(48000f, 2);
                 consumer.addDefaultFilters();
             }));
 
-            mixer.addSink(mixerSink = new DiscordMixerSink(
-                    DiscordMixerSink.AUDIO_FORMAT,
-                    OpusParameters.fromPluginConfiguration(plugin),
-                    mixer.getBufferSize() * (DiscordMixerSink.AUDIO_FORMAT.getSampleSizeInBits()/8)
-            ));
-
             audioConnection.registerChannel(channel = new DiscordAudioChannel(this, mixer, this));
 
+            channel.setIdle(true);
+
+            plugin.getLogger().fine("Registered audio mixer for guild \"" + guild.getName()
+                    + "\" [" + getId() + "].");
+        } else
+            plugin.getLogger().warning("Couldn't register audio for guild ["
+                    + getId() + "] because audio was not initialized.");
+    }
+
+    /**
+     * Creates the Opus sink and installs the voice handlers for this guild, if they aren't already.  This is done the
+     * first time the guild's audio channel is obtained, so guilds that never play anything don't hold an encoder.
+     * @return the mixer sink.
+     * @throws IllegalStateException if audio is not registered for this guild.
+     */
+    public DiscordMixerSink allocateAudio() {
+        synchronized (audioLock) {
+            if (mixerSink != null) return mixerSink;
+
+            Mixer mixer = this.mixer;
+            if (mixer == null)
+                throw new IllegalStateException("audio is not registered for guild " + getId());
+
+            mixer.addSink(mixerSink = createSink(mixer));
+
             AudioManager audioManager = guild.getAudioManager();
 
-            audioManager.setSendingHandler(mixerSink);
+            // While relaying another guild's broadcast, the subscription stays the sending handler
+            synchronized (broadcastLock) {
+                if (subscription == null) audioManager.setSendingHandler(mixerSink);
+            }
 
             audioManager.setConnectionListener(new ConnectionListener() {
                 @Override
                 public void onPing(long ping) {
-
+                    opusParameters.onPing(ping);
+                    retune(false);
                 }
 
                 @Override
@@ -224,7 +476,7 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
 
                 @Override
                 public void onUserSpeaking(net.dv8tion.jda.api.entities.User user, boolean speaking) {
-                    //TODO
+                    speakingIndex.update(user.getIdLong(), speaking);
                 }
             });
 
@@ -246,25 +498,261 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
 
                 @Override
                 public boolean canReceiveEncoded() {
-                    return true;
+                    return receivePipeline.isActive();
                 }
 
                 @Override
                 public void handleEncodedAudio(OpusPacket opusPacket) {
-                    //TODO
+                    receivePipeline.handle(opusPacket);
                 }
             });
 
-            channel.setIdle(true);
+            plugin.getLogger().fine("Allocated audio for guild \"" + guild.getName()
+                    + "\" [" + getId() + "].");
 
-            plugin.getLogger().fine("Registered audio mixer for guild \"" + guild.getName()
+            return mixerSink;
+        }
+    }
+
+    /**
+     * Allocates audio for playing into a voice channel, tuning the encoder to the channel's bitrate.
+     * @param voiceChannel voice channel about to be joined.
+     * @return the mixer sink.
+     */
+    public DiscordMixerSink allocateAudio(VoiceChannel voiceChannel) {
+        synchronized (audioLock) {
+            opusParameters.setChannelBitrate(voiceChannel.getBitrate());
+            allocateAudio();
+            retune(true);
+            return mixerSink;
+        }
+    }
+
+    private DiscordMixerSink createSink(Mixer mixer) {
+        OpusParameters parameters = opusParameters.create();
+        sinkBitrate = parameters.getOpusBitrate();
+        sinkComplexity = parameters.getOpusComplexity();
+        retuneSince = 0L;
+
+        return new DiscordMixerSink(
+                DiscordMixerSink.AUDIO_FORMAT,
+                parameters,
+                mixer.getBufferSize() * (DiscordMixerSink.AUDIO_FORMAT.getSampleSizeInBits()/8),
+                Integer.parseInt(plugin.getProperty("audioLookahead", "3")),
+                Integer.parseInt(plugin.getProperty("audioMaxLookahead", "25"))
+        );
+    }
+
+    /**
+     * Replaces the sink with one built for the current encoder parameters, if they changed.  The encoder can't be
+     * reconfigured in place, and swapping sinks drops the frames buffered in the old one, so unless forced this waits
+     * for a pause in the audio (or for RETUNE_DEADLINE_MILLIS to pass).
+     * @param force true to swap right away.
+     */
+    private void retune(boolean force) {
+        synchronized (audioLock) {
+            DiscordMixerSink old = this.mixerSink;
+            Mixer mixer = this.mixer;
+            if (old == null || mixer == null) return;
+
+            if (opusParameters.getBitrate() == sinkBitrate && opusParameters.getComplexity() == sinkComplexity) {
+                retuneSince = 0L;
+                return;
+            }
+
+            AudioManager audioManager = guild.getAudioManager();
+            long now = System.currentTimeMillis();
+
+            if (!force && !old.isSilent() && audioManager.isConnected()) {
+                if (retuneSince == 0L) retuneSince = now;
+                if (now - retuneSince < RETUNE_DEADLINE_MILLIS) return;
+            }
+
+            DiscordMixerSink sink = createSink(mixer);
+            sink.setBroadcast(old.getBroadcast());
+            mixer.addSink(sink);
+
+            synchronized (broadcastLock) {
+                if (subscription == null) audioManager.setSendingHandler(sink);
+                this.mixerSink = sink;
+            }
+
+            mixer.removeSink(old);
+            old.close();
+
+            plugin.getLogger().fine("Retuned audio for guild \"" + guild.getName() + "\" [" + getId() + "] to "
+                    + sinkBitrate + " bps, complexity " + sinkComplexity + ".");
+        }
+    }
+
+    public AdaptiveOpusParameters getOpusParameters() {
+        return opusParameters;
+    }
+
+    /**
+     * Gets the bitrate the current sink's encoder was built with.
+     */
+    public int getEncoderBitrate() {
+        return sinkBitrate;
+    }
+
+    /**
+     * Gets the complexity the current sink's encoder was built with.
+     */
+    public int getEncoderComplexity() {
+        return sinkComplexity;
+    }
+
+    /**
+     * Removes the Opus sink and voice handlers created by allocateAudio(), leaving the mixer and audio channel
+     * registered.  Audio is kept while this guild's mixer is being broadcast to other guilds, or while its voice is
+     * being recorded.
+     * @return true if audio was released.
+     */
+    public boolean releaseAudio() {
+        synchronized (audioLock) {
+            if (mixerSink == null) return false;
+
+            OpusBroadcast broadcast = this.broadcast;
+            if (broadcast != null && broadcast.hasSubscribers()) return false;
+
+            if (recorder != null) return false;
+
+            if (mixer != null) mixer.removeSink(mixerSink);
+            mixerSink.close();
+            mixerSink = null;
+
+            AudioManager audioManager = guild.getAudioManager();
+            audioManager.setConnectionListener(null);
+            audioManager.setReceivingHandler(null);
+            receivePipeline.clear();
+            speakingIndex.clear();
+
+            OpusBroadcast closing;
+            synchronized (broadcastLock) {
+                if (subscription == null) audioManager.setSendingHandler(null);
+                closing = this.broadcast;
+                this.broadcast = null;
+            }
+
+            // Rejects anyone still trying to subscribe to the released broadcast
+            if (closing != null) closing.close();
+
+            plugin.getLogger().fine("Released audio for guild \"" + guild.getName()
                     + "\" [" + getId() + "].");
-        } else
-            plugin.getLogger().warning("Couldn't register audio for guild ["
-                    + getId() + "] because audio was not initialized.");
+
+            return true;
+        }
+    }
+
+    public boolean isAudioAllocated() {
+        return mixerSink != null;
+    }
+
+    /**
+     * Gets the broadcast of this guild's mixer, creating it on first use.
+     * @return broadcast instance.
+     * @throws IllegalStateException if audio is not registered for this guild.
+     */
+    public OpusBroadcast getOrCreateBroadcast() {
+        synchronized (audioLock) {
+            DiscordMixerSink sink = allocateAudio();
+
+            synchronized (broadcastLock) {
+                if (broadcast == null) {
+                    // 50 frames is one second of audio at 20ms per frame
+                    sink.setBroadcast(broadcast = new OpusBroadcast(getId(), 50));
+                }
+
+                return broadcast;
+            }
+        }
+    }
+
+    public OpusBroadcast getBroadcast() {
+        return broadcast;
+    }
+
+    public OpusBroadcast.Subscriber getSubscription() {
+        return subscription;
+    }
+
+    /**
+     * Relays another guild's broadcast into a voice channel of this guild, in place of this guild's own mixer.  The
+     * relay stops by itself if the source guild stops broadcasting.
+     * @param source broadcast to relay.
+     * @param voiceChannel voice channel in this guild to relay into.
+     * @throws IllegalStateException if audio is not registered for this guild, or the broadcast is closed.
+     */
+    public void subscribe(OpusBroadcast source, VoiceChannel voiceChannel) {
+        if (voiceChannel.getGuild().getIdLong() != guild.getIdLong())
+            throw new IllegalArgumentException("voice channel is not in guild " + getId());
+
+        if (source.getId().equals(getId()))
+            throw new IllegalArgumentException("a guild cannot relay its own broadcast");
+
+        if (channel == null || !guildModel.isMusicEnabled())
+            throw new IllegalStateException("audio is not registered for guild " + getId());
+
+        synchronized (broadcastLock) {
+            OpusBroadcast.Subscriber old = subscription;
+
+            subscription = source.subscribe(this::onBroadcastClosed);
+            if (old != null) old.getBroadcast().unsubscribe(old);
+
+            AudioManager audioManager = guild.getAudioManager();
+            audioManager.setSendingHandler(subscription);
+            audioManager.openAudioConnection(voiceChannel);
+        }
+    }
+
+    /**
+     * Stops relaying another guild's broadcast, handing this guild's voice connection back to its own mixer.
+     * @return true if a broadcast was being relayed.
+     */
+    public boolean unsubscribe() {
+        synchronized (broadcastLock) {
+            if (subscription == null) return false;
+
+            subscription.getBroadcast().unsubscribe(subscription);
+            stopRelaying();
+
+            return true;
+        }
+    }
+
+    /**
+     * Called when the broadcast this guild relays is closed by its source guild.
+     * @param closed subscriber that was closed.
+     */
+    private void onBroadcastClosed(OpusBroadcast.Subscriber closed) {
+        synchronized (broadcastLock) {
+            if (subscription != closed) return; // already moved on to another broadcast
+            stopRelaying();
+        }
+
+        plugin.getLogger().fine("Stopped relaying the broadcast of guild " + closed.getBroadcast().getId()
+                + " into guild \"" + guild.getName() + "\" [" + getId() + "]: the broadcast was closed.");
+    }
+
+    private void stopRelaying() {
+        subscription = null;
+
+        AudioManager audioManager = guild.getAudioManager();
+        audioManager.setSendingHandler(mixerSink); // null if audio isn't allocated
+        audioManager.closeAudioConnection();
     }
 
     public void register() throws Exception {
+        register(true);
+    }
+
+    /**
+     * Registers this guild connection.
+     * @param withAudio true if the audio subsystem should be initialized now, false if the caller will call
+     *                  registerAudio() itself later on (i.e. off of the critical path of connecting to Discord).
+     */
+    public void register(boolean withAudio) throws Exception {
         synchronized (registerLock) {
             if (registered) return;
 
@@ -272,9 +760,9 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
                     + "\" [" + getId() + "] ...");
 
             // Initialize audio subsystem for this guild.
-            if (guildModel.isMusicEnabled()) {
+            if (withAudio && guildModel.isMusicEnabled()) {
                 registerAudio();
-            } else {
+            } else if (!guildModel.isMusicEnabled()) {
                 channel = null;
             }
 
@@ -309,26 +797,28 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
         }
     }
 
-    private Sleeper schedule() {
+    private void schedule() {
         int timeout = guildModel.getIdleTimeout();
 
         if (timeout <= 0) {
-            return null;
+            if (idleTimeout != null) idleTimeout.cancel();
+            return;
         }
 
-        return schedule(timeout * 1000);
+        schedule(timeout * 1000L);
     }
 
-    private Sleeper schedule(long millis) {
-        if (sleeper != null && !sleeper.isDone()) {
-            sleeper.cancel();
-        }
+    private void schedule(long millis) {
+        if (idleTimeout == null)
+            idleTimeout = connection.getIdleTimers().newTimeout(this::onIdleTimeout);
 
-        Virtual.getInstance()
-                .create(sleeper = new Sleeper(System.currentTimeMillis() + millis))
-                .start();
+        idleTimeout.schedule(millis, TimeUnit.MILLISECONDS);
+    }
 
-        return sleeper;
+    private void onIdleTimeout() {
+        DiscordAudioChannel channel = this.channel;
+        if (channel != null && channel.getState() == AudioChannel.State.WAITING)
+            channel.setIdle(true);
     }
 
     public Conversation getDefaultConversation() {
@@ -367,59 +857,20 @@ public class DiscordGuildConnection implements AudioChannelRegistrant, Community
 
     @Override
     public void onChannelSleep(AudioChannel channel) {
-        this.channel.disconnect();
+        if (recorder != null) return; // stay in the voice channel until recording is stopped
+
+        boolean relaying;
+        synchronized (broadcastLock) {
+            relaying = subscription != null;
+        }
+
+        // The local mixer going idle doesn't end a relay, which keeps using the voice connection
+        if (!relaying) this.channel.disconnect();
+        releaseAudio();
     }
 
     @Override
     public void onChannelWake(AudioChannel channel) {
         schedule();
     }
-
-    private class Sleeper implements Runnable {
-        private final long sleepTime;
-        private final Object lock = new Object();
-        private volatile boolean cancel = false;
-        private volatile boolean done = false;
-
-        private Sleeper(long sleepTime) {
-            this.sleepTime = sleepTime;
-        }
-
-        @Override
-        public void run() {
-            synchronized (lock) {
-                while (!cancel) {
-                    try {
-                        lock.wait(Math.max(0, sleepTime - System.currentTimeMillis()));
-                        break;
-                    } catch (InterruptedException e) {
-                        Thread.yield();
-                    }
-                }
-
-                if (cancel) {
-                    done = true;
-                    return;
-                }
-
-                if (channel != null && channel.getState() == AudioChannel.State.WAITING)
-                    channel.setIdle(true);
-
-                sleeper = null;
-
-                done = true;
-            }
-        }
-
-        void cancel() {
-            synchronized (lock) {
-                cancel = true;
-                lock.notifyAll();
-            }
-        }
-
-        boolean isDone() {
-            return done;
-        }
-    }
 }
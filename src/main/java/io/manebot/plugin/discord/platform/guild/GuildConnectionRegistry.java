@@ -0,0 +1,134 @@
+package io.manebot.plugin.discord.platform.guild;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+
+/**
+ * Thread-safe registry of guild connections, keyed by guild snowflake.  Connections are spread over 64 stripes, each a
+ * primitive-keyed map guarded by its own lock, so lookups don't box the ID and a guild connection is only ever
+ * created once, while connections for guilds on other stripes are created in parallel.
+ *
+ * Iteration is served from an immutable snapshot, rebuilt at most once after each change to the registry, so callers
+ * listing connections never see a half-updated registry and don't copy it on every call.  Changes hold the read side
+ * of a read-write lock and rebuilding the snapshot holds the write side, so a snapshot sees every stripe at the same
+ * point.
+ */
+public class GuildConnectionRegistry {
+    private static final int STRIPES = 64;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Snapshot snapshot = new Snapshot(0L, Collections.emptyList());
+
+    public GuildConnectionRegistry() {
+        for (int i = 0; i < STRIPES; i ++)
+            stripes[i] = new Stripe();
+    }
+
+    private Stripe stripeFor(long id) {
+        // Snowflakes carry a timestamp in their upper bits; mix them into the stripe index
+        return stripes[(int) ((id ^ (id >>> 22) ^ (id >>> 32)) & (STRIPES - 1))];
+    }
+
+    public DiscordGuildConnection get(long id) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            return stripe.connections.get(id);
+        }
+    }
+
+    public DiscordGuildConnection getOrCreate(long id, LongFunction<DiscordGuildConnection> factory) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            DiscordGuildConnection connection = stripe.connections.get(id);
+            if (connection != null) return connection;
+
+            // Created outside the snapshot lock, so a slow creation only holds up its own stripe
+            connection = factory.apply(id);
+
+            snapshotLock.readLock().lock();
+            try {
+                stripe.connections.put(id, connection);
+                size.incrementAndGet();
+                version.incrementAndGet();
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+
+            return connection;
+        }
+    }
+
+    public DiscordGuildConnection remove(long id) {
+        Stripe stripe = stripeFor(id);
+        synchronized (stripe) {
+            snapshotLock.readLock().lock();
+            try {
+                DiscordGuildConnection removed = stripe.connections.remove(id);
+                if (removed != null) {
+                    size.decrementAndGet();
+                    version.incrementAndGet();
+                }
+
+                return removed;
+            } finally {
+                snapshotLock.readLock().unlock();
+            }
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets an immutable snapshot of the registered guild connections.
+     * @return snapshot of guild connections.
+     */
+    public List<DiscordGuildConnection> snapshot() {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.version == version.get()) return snapshot.connections;
+
+        snapshotLock.writeLock().lock();
+        try {
+            // No change can run while the write lock is held, so the stripes can be read without their locks
+            long current = version.get();
+            snapshot = this.snapshot;
+            if (snapshot.version == current) return snapshot.connections;
+
+            List<DiscordGuildConnection> connections = new ArrayList<>(size.get());
+            for (Stripe stripe : stripes)
+                connections.addAll(stripe.connections.valueCollection());
+
+            this.snapshot = snapshot = new Snapshot(current, Collections.unmodifiableList(connections));
+            return snapshot.connections;
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private static class Stripe {
+        private final TLongObjectMap<DiscordGuildConnection> connections = new TLongObjectHashMap<>();
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final List<DiscordGuildConnection> connections;
+
+        private Snapshot(long version, List<DiscordGuildConnection> connections) {
+            this.version = version;
+            this.connections = connections;
+        }
+    }
+}
@@ -4,31 +4,124 @@ import io.manebot.database.Database;
 import io.manebot.plugin.Plugin;
 import io.manebot.plugin.PluginReference;
 import io.manebot.plugin.discord.database.model.DiscordGuild;
-import io.manebot.virtual.Virtual;
+import io.manebot.plugin.discord.database.model.DiscordGuildWriteQueue;
 
 import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Manages DiscordGuild models.  Every model is loaded into an in-memory index (keyed by guild snowflake) with one
+ * query, so looking up a guild never needs a round trip to the database; only creating a new guild does.
+ */
 public class GuildManager implements PluginReference {
+    private static final long WRITE_INTERVAL_MILLIS = 5000L;
+    private static final int WRITE_BATCH_SIZE = 250;
+
     private final Database database;
+    private final DiscordGuildWriteQueue writeQueue;
+
+    private final Map<Long, DiscordGuild> guilds = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<DiscordGuild>> creating = new ConcurrentHashMap<>();
+    private final Object loadLock = new Object();
+    private volatile boolean loaded = false;
 
-    public GuildManager(Database database) {
+    public GuildManager(Plugin plugin, Database database) {
         this.database = database;
+        this.writeQueue = new DiscordGuildWriteQueue(
+                database,
+                plugin.getLogger(),
+                WRITE_INTERVAL_MILLIS,
+                WRITE_BATCH_SIZE
+        );
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+
+        synchronized (loadLock) {
+            if (loaded) return;
+
+            List<DiscordGuild> models = database.execute(s -> {
+                return s.createQuery(
+                        "SELECT x FROM " + DiscordGuild.class.getName() + " x",
+                        DiscordGuild.class
+                ).getResultList();
+            });
+
+            for (DiscordGuild model : models) {
+                model.setWriteQueue(writeQueue);
+                guilds.putIfAbsent(Long.parseLong(model.getId()), model);
+            }
+
+            loaded = true;
+        }
     }
 
     public DiscordGuild getGuild(String id) {
-        return database.execute(s -> {
-            return s.createQuery(
-                    "SELECT x FROM " + DiscordGuild.class.getName() + " x WHERE x.id=:id",
-                    DiscordGuild.class
-            ).setParameter("id", id)
-                    .getResultList()
-                    .stream()
-                    .findFirst()
-                    .orElse(null);
-        });
+        ensureLoaded();
+        return guilds.get(Long.parseLong(id));
+    }
+
+    /**
+     * Finds the guild models for a set of guild IDs.
+     * @param ids guild IDs to find.
+     * @return map of guild ID to guild model; IDs without a model are absent from the map.
+     */
+    public Map<String, DiscordGuild> getGuilds(Collection<String> ids) {
+        ensureLoaded();
+
+        Map<String, DiscordGuild> found = new HashMap<>(ids.size());
+        for (String id : ids) {
+            DiscordGuild guild = guilds.get(Long.parseLong(id));
+            if (guild != null) found.put(id, guild);
+        }
+
+        return found;
     }
 
     public DiscordGuild getOrCreateGuild(String id) {
+        ensureLoaded();
+
+        long key = Long.parseLong(id);
+        DiscordGuild guild = guilds.get(key);
+        if (guild != null) return guild;
+
+        // Single-flight: only the first caller for a given guild runs the transaction; everyone else waits on it
+        CompletableFuture<DiscordGuild> future = new CompletableFuture<>();
+        CompletableFuture<DiscordGuild> existing = creating.putIfAbsent(key, future);
+
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ?
+                        (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+            }
+        }
+
+        try {
+            // It may have been created between the index check and claiming the create
+            guild = guilds.get(key);
+            if (guild == null) {
+                guild = createGuild(id);
+                guild.setWriteQueue(writeQueue);
+                guilds.put(key, guild);
+            }
+
+            future.complete(guild);
+            return guild;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            creating.remove(key, future);
+        }
+    }
+
+    private DiscordGuild createGuild(String id) {
         try {
             return database.executeTransaction(s -> {
                 return s.createQuery(
@@ -50,7 +143,8 @@ public class GuildManager implements PluginReference {
     }
 
     public void removeGuild(String stringID) {
-        DiscordGuild guild = getGuild(stringID);
+        ensureLoaded();
+        DiscordGuild guild = guilds.remove(Long.parseLong(stringID));
         if (guild != null) guild.remove();
     }
 
@@ -58,5 +152,7 @@ public class GuildManager implements PluginReference {
     public void load(Plugin.Future future) {}
 
     @Override
-    public void unload(Plugin.Future future) {}
+    public void unload(Plugin.Future future) {
+        writeQueue.close();
+    }
 }
@@ -0,0 +1,79 @@
+package io.manebot.plugin.discord.platform.user;
+
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.utils.ChunkingFilter;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+
+import java.util.EnumSet;
+
+/**
+ * Selects which guild members are kept in JDA's member cache, set with the "memberCache" plugin property.  Every
+ * profile other than FULL keeps members that are connected to voice (the audio system needs their voice states) and
+ * the guild owner; members outside of the cache are retrieved lazily when they are needed.
+ */
+public enum MemberCacheProfile {
+    /**
+     * Every member of every guild is cached, and member lists are chunked in when a guild becomes available.
+     */
+    FULL,
+
+    /**
+     * Only members connected to a voice channel, and guild owners, are cached.
+     */
+    VOICE,
+
+    /**
+     * Members seen (messaging or joining voice) in the last few minutes are cached, along with voice members and
+     * guild owners.
+     */
+    RECENT,
+
+    /**
+     * Online members are cached, along with voice members and guild owners.
+     */
+    ONLINE;
+
+    public static MemberCacheProfile fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown member cache profile: " + name, ex);
+        }
+    }
+
+    /**
+     * Creates the member cache policy for this profile.
+     * @param recentPolicy policy tracking recently seen members, used by the RECENT profile.
+     * @return member cache policy.
+     */
+    public MemberCachePolicy createPolicy(RecentMemberCachePolicy recentPolicy) {
+        switch (this) {
+            case FULL:
+                return MemberCachePolicy.ALL;
+            case VOICE:
+                return MemberCachePolicy.VOICE.or(MemberCachePolicy.OWNER);
+            case RECENT:
+                return MemberCachePolicy.VOICE.or(MemberCachePolicy.OWNER).or(recentPolicy);
+            case ONLINE:
+                return MemberCachePolicy.ONLINE.or(MemberCachePolicy.OWNER).or(MemberCachePolicy.VOICE);
+            default:
+                throw new UnsupportedOperationException(name());
+        }
+    }
+
+    public ChunkingFilter getChunkingFilter() {
+        return this == FULL ? ChunkingFilter.ALL : ChunkingFilter.NONE;
+    }
+
+    public EnumSet<GatewayIntent> getIntents() {
+        // GUILD_MEMBERS is always needed, either to chunk members in or to retrieve them lazily
+        if (this == ONLINE)
+            return EnumSet.of(GatewayIntent.GUILD_MEMBERS, GatewayIntent.GUILD_PRESENCES);
+        else
+            return EnumSet.of(GatewayIntent.GUILD_MEMBERS);
+    }
+
+    public boolean isFull() {
+        return this == FULL;
+    }
+}
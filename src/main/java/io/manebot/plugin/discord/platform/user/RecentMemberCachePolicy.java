@@ -0,0 +1,87 @@
+package io.manebot.plugin.discord.platform.user;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.sharding.ShardManager;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches members that have been seen in a guild within a sliding window.  Members are marked as seen when they
+ * interact with the bot; messages are seen from the raw gateway event, before JDA decides whether to cache their
+ * author, so a member is cached from their first message on.  sweep() evicts members once
+ * they haven't been seen for the length of the window.
+ */
+public class RecentMemberCachePolicy implements MemberCachePolicy {
+    private final long windowMillis;
+    private final Map<Long, Map<Long, Long>> lastSeen = new ConcurrentHashMap<>();
+
+    public RecentMemberCachePolicy(long window, TimeUnit unit) {
+        this.windowMillis = unit.toMillis(window);
+    }
+
+    public void seen(Guild guild, long userId) {
+        seen(guild.getIdLong(), userId);
+    }
+
+    /**
+     * Marks a member as seen by IDs, i.e. from a raw gateway event before JDA has built the member and decided
+     * whether to cache it.
+     * @param guildId guild ID.
+     * @param userId user ID.
+     */
+    public void seen(long guildId, long userId) {
+        lastSeen.computeIfAbsent(guildId, key -> new ConcurrentHashMap<>())
+                .put(userId, System.currentTimeMillis());
+    }
+
+    public void forget(Guild guild) {
+        lastSeen.remove(guild.getIdLong());
+    }
+
+    @Override
+    public boolean cacheMember(@NotNull Member member) {
+        Map<Long, Long> guildSeen = lastSeen.get(member.getGuild().getIdLong());
+        if (guildSeen == null) return false;
+
+        Long seen = guildSeen.get(member.getIdLong());
+        return seen != null && System.currentTimeMillis() - seen < windowMillis;
+    }
+
+    /**
+     * Evicts members that have not been seen within the window from their guild's member cache.
+     * @param shardManager shard manager to find guilds on.
+     */
+    public void sweep(ShardManager shardManager) {
+        long expiry = System.currentTimeMillis() - windowMillis;
+
+        for (Map.Entry<Long, Map<Long, Long>> guildEntry : lastSeen.entrySet()) {
+            Guild guild = shardManager.getGuildById(guildEntry.getKey());
+            Iterator<Map.Entry<Long, Long>> iterator = guildEntry.getValue().entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> entry = iterator.next();
+                if (entry.getValue() >= expiry) continue;
+
+                iterator.remove();
+
+                if (guild == null) continue;
+
+                Member member = guild.getMemberById(entry.getKey());
+                if (member == null || MemberCachePolicy.VOICE.cacheMember(member)
+                        || MemberCachePolicy.OWNER.cacheMember(member))
+                    continue;
+
+                guild.unloadMember(entry.getKey());
+            }
+
+            if (guildEntry.getValue().isEmpty())
+                lastSeen.remove(guildEntry.getKey(), guildEntry.getValue());
+        }
+    }
+}